@@ -77,6 +77,8 @@ public class Phosphophyllite {
     public void onServerStopped(ServerStoppedEvent serverStoppedEvent) {
         serverResourceManager = null;
         server = null;
+        // nothing may carry over into the next server, singleplayer reuses the queue
+        Queues.serverThread.drainAll();
     }
     
     @SubscribeEvent()
@@ -156,12 +158,7 @@ public class Phosphophyllite {
         }
         tick++;
         
-        // prevents deadlock
-        final boolean[] run = {true};
-        Queues.serverThread.enqueue(() -> run[0] = false);
-        while (run[0]) {
-            Queues.serverThread.runOne();
-        }
+        Queues.serverThread.drain(CONFIG.serverThreadQueueBudgetMicros * 1000);
         
         for (MultiblockController<?, ?> newController : newControllers) {
             controllersToTick.computeIfAbsent((ServerLevel) newController.getWorld(), k -> new ArrayList<>()).add(newController);
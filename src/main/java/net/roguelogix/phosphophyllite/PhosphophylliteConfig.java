@@ -19,6 +19,13 @@ public class PhosphophylliteConfig {
         debugMode = false;
     }
     
+    @ConfigValue(range = "[0,)", comment = "Time per tick, in microseconds, that queued server thread work may take\nWork that doesn't fit is carried over to the next tick, at least one queued task is run every tick")
+    public final long serverThreadQueueBudgetMicros;
+    
+    {
+        serverThreadQueueBudgetMicros = 10000;
+    }
+    
     public static class GUI {
         @ConfigValue(range = "[50,)")
         public final long UpdateIntervalMS;
@@ -31,6 +38,21 @@ public class PhosphophylliteConfig {
     @ConfigValue
     public final GUI gui = new GUI();
     
+    public static class WarmCache {
+        @ConfigValue(range = "[0,)", comment = "Maximum number of fully unloaded persistent multiblocks kept in memory, so they can be reattached without being rebuilt when their chunks load again\n0 disables the cache")
+        public final long maxControllers;
+        @ConfigValue(range = "[1,)", comment = "Ticks an unloaded multiblock is kept in memory before it is dropped")
+        public final long idleTicks;
+        
+        {
+            maxControllers = 64;
+            idleTicks = 6000;
+        }
+    }
+    
+    @ConfigValue
+    public final WarmCache multiblockWarmCache = new WarmCache();
+    
     
     @RegisterConfig.Registration
     public static void registration() {
@@ -0,0 +1,395 @@
+package net.roguelogix.phosphophyllite.debug;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Offline analyzer for the persistence footprint of modular tiles
+ * <p>
+ * Scans every region folder in a world, and reports the serialized size of each tile module ("sub" tag entries), of the persistent_multiblock data per block entity type, and the chunks with the most module data
+ * Standalone, doesn't touch any Minecraft classes (annotations aside), so it can be run from the mod jar while the server is stopped
+ * <p>
+ * java -cp phosphophyllite.jar net.roguelogix.phosphophyllite.debug.RegionAnalyzer world [--top N] [--namespace modid] [--out file.json]
+ * <p>
+ * Output is JSON, sizes are uncompressed NBT payload bytes
+ */
+public class RegionAnalyzer {
+    
+    private static final byte TAG_END = 0;
+    private static final byte TAG_BYTE = 1;
+    private static final byte TAG_SHORT = 2;
+    private static final byte TAG_INT = 3;
+    private static final byte TAG_LONG = 4;
+    private static final byte TAG_FLOAT = 5;
+    private static final byte TAG_DOUBLE = 6;
+    private static final byte TAG_BYTE_ARRAY = 7;
+    private static final byte TAG_STRING = 8;
+    private static final byte TAG_LIST = 9;
+    private static final byte TAG_COMPOUND = 10;
+    private static final byte TAG_INT_ARRAY = 11;
+    private static final byte TAG_LONG_ARRAY = 12;
+    
+    private static final String PERSISTENT_KEY = "persistent_multiblock";
+    
+    private record Tag(byte type, long size, Object value) {
+        @SuppressWarnings("unchecked")
+        Map<String, Tag> compound() {
+            return type == TAG_COMPOUND ? (Map<String, Tag>) value : Collections.emptyMap();
+        }
+        
+        @SuppressWarnings("unchecked")
+        List<Tag> list() {
+            return type == TAG_LIST ? (List<Tag>) value : Collections.emptyList();
+        }
+        
+        @Nullable
+        Tag get(String key) {
+            return compound().get(key);
+        }
+    }
+    
+    private static final class Stats {
+        long count;
+        long totalBytes;
+        long maxBytes;
+        
+        void add(long bytes) {
+            count++;
+            totalBytes += bytes;
+            maxBytes = Math.max(maxBytes, bytes);
+        }
+    }
+    
+    private record ChunkReport(String dimension, int x, int z, long moduleBytes, long persistentBytes, int blockEntities) {
+    }
+    
+    private static final class CountingInputStream extends FilterInputStream {
+        long count = 0;
+        
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+        
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+        
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+    
+    private int top = 20;
+    @Nullable
+    private String namespace = null;
+    
+    private int regionFiles = 0;
+    private long chunks = 0;
+    private long unreadableChunks = 0;
+    private long blockEntities = 0;
+    private final Map<String, Stats> modules = new TreeMap<>();
+    private final Map<String, Stats> blockEntityTypes = new TreeMap<>();
+    private final Map<String, Stats> persistentByType = new TreeMap<>();
+    private final PriorityQueue<ChunkReport> worstChunks = new PriorityQueue<>(Comparator.comparingLong(ChunkReport::moduleBytes));
+    
+    public static void main(String[] args) throws IOException {
+        Path world = null;
+        Path out = null;
+        final var analyzer = new RegionAnalyzer();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--top" -> analyzer.top = Integer.parseInt(args[++i]);
+                case "--namespace" -> analyzer.namespace = args[++i];
+                case "--out" -> out = Paths.get(args[++i]);
+                default -> world = Paths.get(args[i]);
+            }
+        }
+        if (world == null || !Files.isDirectory(world)) {
+            System.err.println("Usage: RegionAnalyzer <world directory> [--top N] [--namespace modid] [--out file.json]");
+            System.exit(1);
+            return;
+        }
+        
+        final List<Path> regionDirectories;
+        try (Stream<Path> paths = Files.walk(world, 4)) {
+            regionDirectories = paths.filter(path -> Files.isDirectory(path) && path.getFileName().toString().equals("region")).sorted().toList();
+        }
+        for (final var regionDirectory : regionDirectories) {
+            final var parent = world.relativize(regionDirectory.getParent()).toString().replace(File.separatorChar, '/');
+            final var dimension = parent.isEmpty() ? "overworld" : parent;
+            try (Stream<Path> files = Files.list(regionDirectory)) {
+                for (final var file : files.filter(path -> path.getFileName().toString().endsWith(".mca")).sorted().toList()) {
+                    analyzer.analyzeRegion(dimension, file);
+                }
+            }
+        }
+        
+        if (out == null) {
+            final var writer = new PrintWriter(new OutputStreamWriter(System.out));
+            analyzer.writeJSON(writer);
+            writer.flush();
+        } else {
+            try (final var writer = new PrintWriter(Files.newBufferedWriter(out))) {
+                analyzer.writeJSON(writer);
+            }
+        }
+    }
+    
+    private void analyzeRegion(String dimension, Path file) throws IOException {
+        // r.<x>.<z>.mca
+        final var nameParts = file.getFileName().toString().split("\\.");
+        if (nameParts.length != 4) {
+            return;
+        }
+        final int regionX;
+        final int regionZ;
+        try {
+            regionX = Integer.parseInt(nameParts[1]);
+            regionZ = Integer.parseInt(nameParts[2]);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        regionFiles++;
+        try (final var region = new RandomAccessFile(file.toFile(), "r")) {
+            if (region.length() < 8192) {
+                return;
+            }
+            final var header = new byte[4096];
+            region.readFully(header);
+            for (int i = 0; i < 1024; i++) {
+                final int location = ((header[i * 4] & 0xFF) << 16) | ((header[i * 4 + 1] & 0xFF) << 8) | (header[i * 4 + 2] & 0xFF);
+                final int sectors = header[i * 4 + 3] & 0xFF;
+                if (location == 0 || sectors == 0) {
+                    continue;
+                }
+                final int chunkX = regionX * 32 + (i & 31);
+                final int chunkZ = regionZ * 32 + (i >> 5);
+                chunks++;
+                try {
+                    final var chunk = readChunk(region, file, location, chunkX, chunkZ);
+                    if (chunk != null) {
+                        analyzeChunk(dimension, chunkX, chunkZ, chunk);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    unreadableChunks++;
+                    System.err.println("Failed to read chunk " + chunkX + ", " + chunkZ + " in " + file + ": " + e);
+                }
+            }
+        }
+    }
+    
+    @Nullable
+    private Tag readChunk(RandomAccessFile region, Path file, int location, int chunkX, int chunkZ) throws IOException {
+        region.seek(location * 4096L);
+        final int length = region.readInt();
+        if (length <= 1) {
+            return null;
+        }
+        final byte compression = region.readByte();
+        InputStream stream;
+        if ((compression & 0x80) != 0) {
+            // oversized chunk, stored in its own file next to the region
+            stream = new BufferedInputStream(Files.newInputStream(file.resolveSibling("c." + chunkX + "." + chunkZ + ".mcc")));
+        } else {
+            final var data = new byte[length - 1];
+            region.readFully(data);
+            stream = new ByteArrayInputStream(data);
+        }
+        stream = switch (compression & 0x7F) {
+            case 1 -> new GZIPInputStream(stream);
+            case 2 -> new InflaterInputStream(stream);
+            case 3 -> stream;
+            default -> throw new IOException("Unknown chunk compression type " + compression);
+        };
+        try (final var input = new DataInputStream(new BufferedInputStream(stream))) {
+            final byte type = input.readByte();
+            if (type != TAG_COMPOUND) {
+                return null;
+            }
+            input.skipBytes(input.readUnsignedShort());
+            return readTag(new CountingInputStream(input), TAG_COMPOUND);
+        }
+    }
+    
+    private static Tag readTag(CountingInputStream counter, byte type) throws IOException {
+        final var input = new DataInputStream(counter);
+        final long start = counter.count;
+        Object value = null;
+        switch (type) {
+            case TAG_BYTE -> input.skipNBytes(1);
+            case TAG_SHORT -> input.skipNBytes(2);
+            case TAG_INT -> value = input.readInt();
+            case TAG_LONG, TAG_DOUBLE -> input.skipNBytes(8);
+            case TAG_FLOAT -> input.skipNBytes(4);
+            case TAG_BYTE_ARRAY -> input.skipNBytes(input.readInt());
+            case TAG_STRING -> value = input.readUTF();
+            case TAG_LIST -> {
+                final byte elementType = input.readByte();
+                final int size = input.readInt();
+                final var list = new ArrayList<Tag>(Math.max(0, Math.min(size, 1024)));
+                for (int i = 0; i < size; i++) {
+                    list.add(readTag(counter, elementType));
+                }
+                value = list;
+            }
+            case TAG_COMPOUND -> {
+                final var compound = new LinkedHashMap<String, Tag>();
+                while (true) {
+                    final byte childType = input.readByte();
+                    if (childType == TAG_END) {
+                        break;
+                    }
+                    final var name = input.readUTF();
+                    compound.put(name, readTag(counter, childType));
+                }
+                value = compound;
+            }
+            case TAG_INT_ARRAY -> input.skipNBytes(4L * input.readInt());
+            case TAG_LONG_ARRAY -> input.skipNBytes(8L * input.readInt());
+            default -> throw new IOException("Unknown NBT tag type " + type);
+        }
+        return new Tag(type, counter.count - start, value);
+    }
+    
+    private void analyzeChunk(String dimension, int chunkX, int chunkZ, Tag chunk) {
+        // pre 1.18 chunks are nested inside "Level", and use a different key
+        var entities = chunk.get("block_entities");
+        if (entities == null) {
+            final var level = chunk.get("Level");
+            if (level != null) {
+                entities = level.get("TileEntities");
+            }
+        }
+        if (entities == null) {
+            return;
+        }
+        long chunkModuleBytes = 0;
+        long chunkPersistentBytes = 0;
+        int chunkBlockEntities = 0;
+        for (final var entity : entities.list()) {
+            final var sub = entity.get("sub");
+            if (sub == null || sub.type != TAG_COMPOUND) {
+                continue;
+            }
+            final var idTag = entity.get("id");
+            final var id = idTag != null && idTag.value instanceof String string ? string : "unknown";
+            if (namespace != null && !id.startsWith(namespace + ":")) {
+                continue;
+            }
+            blockEntities++;
+            chunkBlockEntities++;
+            long entityBytes = 0;
+            for (final var module : sub.compound().entrySet()) {
+                final long bytes = module.getValue().size;
+                modules.computeIfAbsent(module.getKey(), k -> new Stats()).add(bytes);
+                entityBytes += bytes;
+                if (module.getKey().equals(PERSISTENT_KEY)) {
+                    chunkPersistentBytes += bytes;
+                    // parts that aren't a save delegate store nothing, only count the ones with data
+                    if (!module.getValue().compound().isEmpty()) {
+                        persistentByType.computeIfAbsent(id, k -> new Stats()).add(bytes);
+                    }
+                }
+            }
+            final var local = entity.get("local");
+            if (local != null) {
+                modules.computeIfAbsent("local", k -> new Stats()).add(local.size);
+                entityBytes += local.size;
+            }
+            blockEntityTypes.computeIfAbsent(id, k -> new Stats()).add(entityBytes);
+            chunkModuleBytes += entityBytes;
+        }
+        if (chunkBlockEntities == 0 || top <= 0) {
+            return;
+        }
+        worstChunks.add(new ChunkReport(dimension, chunkX, chunkZ, chunkModuleBytes, chunkPersistentBytes, chunkBlockEntities));
+        if (worstChunks.size() > top) {
+            worstChunks.poll();
+        }
+    }
+    
+    private void writeJSON(PrintWriter writer) {
+        writer.println("{");
+        writer.println("  \"version\": 1,");
+        writer.println("  \"regionFiles\": " + regionFiles + ",");
+        writer.println("  \"chunks\": " + chunks + ",");
+        writer.println("  \"unreadableChunks\": " + unreadableChunks + ",");
+        writer.println("  \"blockEntities\": " + blockEntities + ",");
+        writeStats(writer, "modules", modules);
+        writer.println(",");
+        writeStats(writer, "blockEntityTypes", blockEntityTypes);
+        writer.println(",");
+        writeStats(writer, "persistentMultiblockByType", persistentByType);
+        writer.println(",");
+        final var chunkReports = new ArrayList<>(worstChunks);
+        chunkReports.sort(Comparator.comparingLong(ChunkReport::moduleBytes).reversed());
+        writer.println("  \"worstChunks\": [");
+        for (int i = 0; i < chunkReports.size(); i++) {
+            final var report = chunkReports.get(i);
+            writer.print("    {\"dimension\": " + quote(report.dimension) + ", \"x\": " + report.x + ", \"z\": " + report.z + ", \"moduleBytes\": " + report.moduleBytes + ", \"persistentBytes\": " + report.persistentBytes + ", \"blockEntities\": " + report.blockEntities + "}");
+            writer.println(i + 1 < chunkReports.size() ? "," : "");
+        }
+        writer.println("  ]");
+        writer.println("}");
+    }
+    
+    private static void writeStats(PrintWriter writer, String name, Map<String, Stats> stats) {
+        writer.println("  " + quote(name) + ": {");
+        final var iter = stats.entrySet().iterator();
+        while (iter.hasNext()) {
+            final var entry = iter.next();
+            final var value = entry.getValue();
+            writer.print("    " + quote(entry.getKey()) + ": {\"count\": " + value.count + ", \"totalBytes\": " + value.totalBytes + ", \"maxBytes\": " + value.maxBytes + "}");
+            writer.println(iter.hasNext() ? "," : "");
+        }
+        writer.print("  }");
+    }
+    
+    private static String quote(String string) {
+        final var builder = new StringBuilder(string.length() + 2);
+        builder.append('"');
+        for (int i = 0; i < string.length(); i++) {
+            final char c = string.charAt(i);
+            switch (c) {
+                case '"' -> builder.append("\\\"");
+                case '\\' -> builder.append("\\\\");
+                case '\n' -> builder.append("\\n");
+                case '\r' -> builder.append("\\r");
+                case '\t' -> builder.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+                }
+            }
+        }
+        builder.append('"');
+        return builder.toString();
+    }
+}
@@ -24,5 +24,28 @@ public interface IModularTile {
         return (T) module(interfaceClazz);
     }
     
+    @Nullable
+    default TileModule<?> module(ModuleSlot slot) {
+        return module(slot.moduleInterface);
+    }
+    
     List<TileModule<?>> modules();
+    
+    /**
+     * Called when a module transitions to having changes that need to be sent to clients
+     */
+    default void onModuleUpdateDirty(TileModule<?> module) {
+    }
+    
+    /**
+     * Called when a module's save data changes, the tile's chunk should be flagged as needing to be saved
+     */
+    default void onModuleSaveDirty(TileModule<?> module) {
+    }
+    
+    /**
+     * Called when a module's capabilities change, any cached capability lookups must be dropped
+     */
+    default void onModuleCapabilitiesChanged(TileModule<?> module) {
+    }
 }
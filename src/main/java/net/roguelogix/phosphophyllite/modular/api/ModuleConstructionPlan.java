@@ -0,0 +1,147 @@
+package net.roguelogix.phosphophyllite.modular.api;
+
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The modules to construct for one concrete class, in registration order, and the layout they are stored in
+ * <p>
+ * Matching registered module interfaces against a class is done once per class, constructing an instance just runs the plan
+ * A module's slot is its index in the plan, every instance of the class stores its modules in an array in that order
+ */
+@NonnullDefault
+public final class ModuleConstructionPlan<OwnerType, ModuleType> {
+    
+    private final Cache<OwnerType, ModuleType> cache;
+    private final int generation;
+    private final Class<?>[] interfaces;
+    private final Function<OwnerType, ModuleType>[] constructors;
+    // module interface id -> slot, -1 for interfaces this class doesn't implement
+    private final int[] slotByID;
+    
+    private ModuleConstructionPlan(Cache<OwnerType, ModuleType> cache, int generation, Class<?>[] interfaces, Function<OwnerType, ModuleType>[] constructors) {
+        this.cache = cache;
+        this.generation = generation;
+        this.interfaces = interfaces;
+        this.constructors = constructors;
+        int maxID = -1;
+        final var ids = new int[interfaces.length];
+        for (int i = 0; i < interfaces.length; i++) {
+            ids[i] = cache.id(interfaces[i]);
+            maxID = Math.max(maxID, ids[i]);
+        }
+        slotByID = new int[maxID + 1];
+        Arrays.fill(slotByID, -1);
+        for (int i = 0; i < ids.length; i++) {
+            slotByID[ids[i]] = i;
+        }
+    }
+    
+    public int size() {
+        return interfaces.length;
+    }
+    
+    public Class<?> moduleInterface(int index) {
+        return interfaces[index];
+    }
+    
+    public ModuleType construct(int index, OwnerType owner) {
+        return constructors[index].apply(owner);
+    }
+    
+    /**
+     * @return the constructor as registered, registries may register wrappers carrying extra information
+     */
+    public Function<OwnerType, ModuleType> constructor(int index) {
+        return constructors[index];
+    }
+    
+    /**
+     * @return slot of the module for this interface id, -1 if this class has none
+     */
+    public int slot(int id) {
+        return id < slotByID.length ? slotByID[id] : -1;
+    }
+    
+    public int slot(Class<?> moduleInterface) {
+        return slot(cache.id(moduleInterface));
+    }
+    
+    /**
+     * Per class plans for one registry, rebuilt for any class whose plan was built before the last registration
+     */
+    public static final class Cache<OwnerType, ModuleType> {
+        
+        private final Object lock;
+        private final Map<? extends Class<?>, ? extends Function<OwnerType, ModuleType>> registry;
+        private volatile int generation = 0;
+        private int nextID = 0;
+        
+        private final ClassValue<Integer> ids = new ClassValue<>() {
+            @Override
+            protected Integer computeValue(Class<?> type) {
+                synchronized (lock) {
+                    return nextID++;
+                }
+            }
+        };
+        
+        private final ClassValue<ModuleConstructionPlan<OwnerType, ModuleType>> plans = new ClassValue<>() {
+            @Override
+            protected ModuleConstructionPlan<OwnerType, ModuleType> computeValue(Class<?> type) {
+                return build(type);
+            }
+        };
+        
+        /**
+         * @param lock     lock the registry is modified under
+         * @param registry module interface to constructor, in registration order
+         */
+        public Cache(Object lock, Map<? extends Class<?>, ? extends Function<OwnerType, ModuleType>> registry) {
+            this.lock = lock;
+            this.registry = registry;
+        }
+        
+        private ModuleConstructionPlan<OwnerType, ModuleType> build(Class<?> type) {
+            synchronized (lock) {
+                final var interfaces = new ArrayList<Class<?>>();
+                final var constructors = new ArrayList<Function<OwnerType, ModuleType>>();
+                registry.forEach((clazz, constructor) -> {
+                    if (clazz.isAssignableFrom(type)) {
+                        interfaces.add(clazz);
+                        constructors.add(constructor);
+                    }
+                });
+                //noinspection unchecked
+                return new ModuleConstructionPlan<>(this, generation, interfaces.toArray(new Class<?>[0]), constructors.toArray(new Function[0]));
+            }
+        }
+        
+        public ModuleConstructionPlan<OwnerType, ModuleType> get(Class<?> type) {
+            var plan = plans.get(type);
+            if (plan.generation != generation) {
+                plans.remove(type);
+                plan = plans.get(type);
+            }
+            return plan;
+        }
+        
+        /**
+         * @return fixed id of this module interface, shared by every class's layout
+         */
+        public int id(Class<?> moduleInterface) {
+            return ids.get(moduleInterface);
+        }
+        
+        /**
+         * Must be called with the registry's lock held, after it is modified
+         */
+        public void invalidate() {
+            generation++;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package net.roguelogix.phosphophyllite.modular.api;
 import net.minecraft.MethodsReturnNonnullByDefault;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraftforge.common.capabilities.Capability;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 import java.util.ArrayList;
@@ -17,6 +18,8 @@ public class ModuleRegistry {
     private static final ArrayList<BiConsumer<Class<? extends IModularTile>, Function<BlockEntity, TileModule<?>>>> externalTileRegistrars = new ArrayList<>();
     private static final LinkedHashMap<Class<? extends IModularBlock>, Function<Block, BlockModule<?>>> blockModuleRegistry = new LinkedHashMap<>();
     private static final ArrayList<BiConsumer<Class<? extends IModularBlock>, Function<Block, BlockModule<?>>>> externalBlockRegistrars = new ArrayList<>();
+    private static final ModuleConstructionPlan.Cache<BlockEntity, TileModule<?>> tilePlans = new ModuleConstructionPlan.Cache<>(ModuleRegistry.class, tileModuleRegistry);
+    private static final ModuleConstructionPlan.Cache<Block, BlockModule<?>> blockPlans = new ModuleConstructionPlan.Cache<>(ModuleRegistry.class, blockModuleRegistry);
     
     /**
      * Registers an ITileModule and the interface the tile class will implement to signal to create an instance at tile creation
@@ -31,6 +34,76 @@ public class ModuleRegistry {
         //noinspection unchecked
         final Function<BlockEntity, TileModule<?>> wrapped = tile -> constructor.apply((T) tile);
         tileModuleRegistry.put(moduleInterface, wrapped);
+        tilePlans.invalidate();
+        externalTileRegistrars.forEach(c -> c.accept(moduleInterface, wrapped));
+    }
+    
+    private static boolean listsCapability(Capability<?>[] capabilities, Capability<?> capability) {
+        for (final var listed : capabilities) {
+            if (listed == capability) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Tile module constructor for a module that declared the capabilities it provides, it is only asked for those
+     */
+    public record CapabilityTileModule(Capability<?>[] capabilities, Function<BlockEntity, TileModule<?>> constructor) implements Function<BlockEntity, TileModule<?>> {
+        @Override
+        public TileModule<?> apply(BlockEntity tile) {
+            return constructor.apply(tile);
+        }
+        
+        public boolean provides(Capability<?> capability) {
+            return listsCapability(capabilities, capability);
+        }
+    }
+    
+    /**
+     * Same as registerTileModule, but the tile only asks the module for the listed capabilities
+     * Modules registered without a list are asked for every capability (if their class overrides capability)
+     *
+     * @param capabilities: every capability the module may provide, on any side
+     */
+    public synchronized static <T extends IModularTile> void registerTileModule(Class<T> moduleInterface, Function<T, TileModule<?>> constructor, Capability<?>... capabilities) {
+        //noinspection unchecked
+        final var wrapped = new CapabilityTileModule(capabilities, tile -> constructor.apply((T) tile));
+        tileModuleRegistry.put(moduleInterface, wrapped);
+        tilePlans.invalidate();
+        externalTileRegistrars.forEach(c -> c.accept(moduleInterface, wrapped));
+    }
+    
+    /**
+     * Tile module constructor for a module that is only created the first time it is needed, rather than with the tile
+     * <p>
+     * It is created on its first module lookup, when the tile is asked for one of the listed capabilities, or when client sync data arrives for its save key
+     * Saved data for it is held by the tile until then and written back unchanged on save, so saving never creates it
+     * Once created, it gets postModuleConstruction, its saved data, and onAdded if the tile has been added, it is not in modules() before that
+     */
+    public record LazyTileModule(String saveKey, Capability<?>[] capabilities, Function<BlockEntity, TileModule<?>> constructor) implements Function<BlockEntity, TileModule<?>> {
+        @Override
+        public TileModule<?> apply(BlockEntity tile) {
+            return constructor.apply(tile);
+        }
+        
+        public boolean provides(Capability<?> capability) {
+            return listsCapability(capabilities, capability);
+        }
+    }
+    
+    /**
+     * Same as registerTileModule, but the module is created lazily, see LazyTileModule
+     *
+     * @param saveKey:      must match what the module's saveKey returns
+     * @param capabilities: capabilities the module may provide, asking the tile for one of these creates it, once created it is asked for others too
+     */
+    public synchronized static <T extends IModularTile> void registerLazyTileModule(Class<T> moduleInterface, String saveKey, Function<T, TileModule<?>> constructor, Capability<?>... capabilities) {
+        //noinspection unchecked
+        final var wrapped = new LazyTileModule(saveKey, capabilities, tile -> constructor.apply((T) tile));
+        tileModuleRegistry.put(moduleInterface, wrapped);
+        tilePlans.invalidate();
         externalTileRegistrars.forEach(c -> c.accept(moduleInterface, wrapped));
     }
     
@@ -38,6 +111,7 @@ public class ModuleRegistry {
         //noinspection unchecked
         final Function<Block, BlockModule<?>> wrapped = block -> constructor.apply((B) block);
         blockModuleRegistry.put(moduleInterface, wrapped);
+        blockPlans.invalidate();
         externalBlockRegistrars.forEach(c -> c.accept(moduleInterface, wrapped));
     }
     
@@ -61,4 +135,22 @@ public class ModuleRegistry {
     public static void forEachBlockModule(BiConsumer<Class<? extends IModularBlock>, Function<Block, BlockModule<?>>> callback) {
         blockModuleRegistry.forEach(callback);
     }
+    
+    /**
+     * @return the tile modules to construct for instances of this tile class, matched once per class
+     */
+    public static ModuleConstructionPlan<BlockEntity, TileModule<?>> tilePlan(Class<?> tileClass) {
+        return tilePlans.get(tileClass);
+    }
+    
+    /**
+     * @return handle for looking up this interface's module on tiles without a map lookup
+     */
+    public static ModuleSlot tileSlot(Class<? extends IModularTile> moduleInterface) {
+        return new ModuleSlot(tilePlans.id(moduleInterface), moduleInterface);
+    }
+    
+    public static ModuleConstructionPlan<Block, BlockModule<?>> blockPlan(Class<?> blockClass) {
+        return blockPlans.get(blockClass);
+    }
 }
@@ -0,0 +1,20 @@
+package net.roguelogix.phosphophyllite.modular.api;
+
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+
+/**
+ * A module interface's fixed id, resolved against a class's module layout with array loads instead of a map lookup
+ * <p>
+ * Get one from ModuleRegistry.tileSlot once, and keep it in a static final
+ */
+@NonnullDefault
+public final class ModuleSlot {
+    
+    public final int id;
+    public final Class<?> moduleInterface;
+    
+    ModuleSlot(int id, Class<?> moduleInterface) {
+        this.id = id;
+        this.moduleInterface = moduleInterface;
+    }
+}
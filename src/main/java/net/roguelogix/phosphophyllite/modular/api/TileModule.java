@@ -18,6 +18,23 @@ public class TileModule<InterfaceType extends IModularTile> implements IDebuggab
     @Nonnull
     public final InterfaceType iface;
     
+    // if the module's class overrides capability, modules that don't are skipped when resolving capabilities
+    private static final ClassValue<Boolean> PROVIDES_CAPABILITIES = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                return type.getMethod("capability", Capability.class, Direction.class).getDeclaringClass() != TileModule.class;
+            } catch (NoSuchMethodException e) {
+                return true;
+            }
+        }
+    };
+    
+    private boolean updateDirty = false;
+    private boolean saveDirty = true;
+    @Nullable
+    private CompoundTag cachedSaveNBT;
+    
     public TileModule(IModularTile iface) {
         //noinspection unchecked
         this.iface = (InterfaceType) iface;
@@ -50,6 +67,17 @@ public class TileModule<InterfaceType extends IModularTile> implements IDebuggab
         return LazyOptional.empty();
     }
     
+    public final boolean mayProvideCapabilities() {
+        return PROVIDES_CAPABILITIES.get(getClass());
+    }
+    
+    /**
+     * Tiles cache capability lookups, this must be called when what capability returns changes for reasons other than the returned LazyOptional being invalidated
+     */
+    public final void markCapabilitiesChanged() {
+        iface.onModuleCapabilitiesChanged(this);
+    }
+    
     @Nullable
     public String saveKey() {
         return null;
@@ -68,6 +96,45 @@ public class TileModule<InterfaceType extends IModularTile> implements IDebuggab
         return null;
     }
     
+    /**
+     * Opts this module into save NBT caching
+     * <p>
+     * When enabled, writeNBT is only called on save if markSaveDirty has been called since the last save, otherwise a copy of the last written tag is saved
+     * The returned tag must not be modified after being returned from writeNBT
+     */
+    public boolean cacheSaveNBT() {
+        return false;
+    }
+    
+    /**
+     * Flags this module's save data as changed, this also marks the chunk the tile is in as needing to be saved
+     */
+    public final void markSaveDirty() {
+        saveDirty = true;
+        cachedSaveNBT = null;
+        iface.onModuleSaveDirty(this);
+    }
+    
+    public final boolean isSaveDirty() {
+        return saveDirty || !cacheSaveNBT();
+    }
+    
+    /**
+     * Only to be called by the tile when saving, use writeNBT to write this module's data
+     */
+    @Nullable
+    public final CompoundTag saveNBT() {
+        if (!cacheSaveNBT()) {
+            return writeNBT();
+        }
+        if (saveDirty) {
+            cachedSaveNBT = writeNBT();
+            saveDirty = false;
+        }
+        // the saved tag can be modified by anything else saving the tile, keep the cached one private
+        return cachedSaveNBT != null ? cachedSaveNBT.copy() : null;
+    }
+    
     /**
      * Initial server -> client sync on client side chunk load
      *
@@ -97,6 +164,31 @@ public class TileModule<InterfaceType extends IModularTile> implements IDebuggab
         return null;
     }
     
+    /**
+     * Flags this module as changed since the last update packet
+     * <p>
+     * The next update packet will carry this module's getDataNBT (when getUpdateNBT returns null), and only the modules flagged since the last packet
+     * Players that start tracking the tile later get the full update tag instead
+     */
+    public final void markUpdateDirty() {
+        if (updateDirty) {
+            return;
+        }
+        updateDirty = true;
+        iface.onModuleUpdateDirty(this);
+    }
+    
+    public final boolean isUpdateDirty() {
+        return updateDirty;
+    }
+    
+    /**
+     * Only to be called by the tile when building an update packet
+     */
+    public final void clearUpdateDirty() {
+        updateDirty = false;
+    }
+    
     @Nullable
     public String getDebugString() {
         return null;
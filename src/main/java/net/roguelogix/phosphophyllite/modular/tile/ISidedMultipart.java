@@ -60,10 +60,12 @@ public interface ISidedMultipart extends IModularTile {
             if (side == null) {
                 if (module != null) {
                     coreModule = module;
+                    markCapabilitiesChanged();
                 }
                 return;
             }
             sidedModules[side.get3DDataValue()] = module;
+            markCapabilitiesChanged();
         }
         
         @Override
@@ -9,6 +9,7 @@ import net.minecraft.nbt.CompoundTag;
 import net.minecraft.network.Connection;
 import net.minecraft.network.protocol.game.ClientboundBlockEntityDataPacket;
 import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.entity.BlockEntity;
 import net.minecraft.world.level.block.entity.BlockEntityType;
 import net.minecraft.world.level.block.state.BlockState;
@@ -19,48 +20,117 @@ import net.minecraftforge.event.level.LevelEvent;
 import net.minecraftforge.event.server.ServerStoppedEvent;
 import net.roguelogix.phosphophyllite.debug.IDebuggable;
 import net.roguelogix.phosphophyllite.modular.api.IModularTile;
+import net.roguelogix.phosphophyllite.modular.api.ModuleConstructionPlan;
 import net.roguelogix.phosphophyllite.modular.api.ModuleRegistry;
+import net.roguelogix.phosphophyllite.modular.api.ModuleSlot;
 import net.roguelogix.phosphophyllite.modular.api.TileModule;
+import net.roguelogix.phosphophyllite.util.IntrusiveFastArraySet;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.function.Function;
 
 @ParametersAreNonnullByDefault
 @MethodsReturnNonnullByDefault
-public class PhosphophylliteTile extends BlockEntity implements IModularTile, IDebuggable {
+public class PhosphophylliteTile extends BlockEntity implements IModularTile, IDebuggable, IntrusiveFastArraySet.Element {
     
     public static final Logger MODULE_LOGGER = LogManager.getLogger("Phosphophyllite/ModularTile");
     @Deprecated(forRemoval = true)
     public static final Logger LOGGER = MODULE_LOGGER;
     
     boolean removed = false;
-    private final Object2ObjectOpenHashMap<Class<?>, TileModule<?>> modules = new Object2ObjectOpenHashMap<>();
-    private final ArrayList<TileModule<?>> moduleList = new ArrayList<>();
-    private final List<TileModule<?>> moduleListRO = Collections.unmodifiableList(moduleList);
+    // shared by every tile of this class
+    private final ModuleConstructionPlan<BlockEntity, TileModule<?>> moduleLayout;
+    // lazy modules that haven't been created yet are null
+    private final TileModule<?>[] modules;
+    // only modules that exist, in the order they were created
+    private final ObjectArrayList<TileModule<?>> moduleList;
+    private final List<TileModule<?>> moduleListRO;
+    // saved data for lazy modules that haven't been created yet, by slot
+    @Nullable
+    private CompoundTag[] lazyNBT;
+    private boolean added = false;
+    private final IntrusiveFastArraySet.Indices fastArraySetIndices = new IntrusiveFastArraySet.Indices();
+    // shared by every tile of this class
+    private final TileCapabilityTable capabilityTable;
+    // (capability, side) module lookup results, side index 6 is the null side
+    @Nullable
+    private Capability<?>[] cachedCapabilities;
+    @Nullable
+    private LazyOptional<?>[][] cachedCapabilityResults;
+    private int cachedCapabilityCount = 0;
+    private boolean updatePacketRequested = false;
+    private boolean localUpdateDirty = false;
+    private boolean saveDirtySignalled = false;
     
     public PhosphophylliteTile(BlockEntityType<?> tileEntityTypeIn, BlockPos pos, BlockState state) {
         super(tileEntityTypeIn, pos, state);
-        Class<?> thisClazz = this.getClass();
-        ModuleRegistry.forEachTileModule((clazz, constructor) -> {
-            if (clazz.isAssignableFrom(thisClazz)) {
-                TileModule<?> module = constructor.apply(this);
-                modules.put(clazz, module);
-                moduleList.add(module);
+        moduleLayout = ModuleRegistry.tilePlan(this.getClass());
+        capabilityTable = TileCapabilityTable.get(this.getClass(), moduleLayout);
+        modules = new TileModule<?>[moduleLayout.size()];
+        moduleList = new ObjectArrayList<>(modules.length);
+        for (int i = 0; i < modules.length; i++) {
+            if (moduleLayout.constructor(i) instanceof ModuleRegistry.LazyTileModule) {
+                continue;
             }
-        });
+            modules[i] = moduleLayout.construct(i, this);
+            moduleList.add(modules[i]);
+        }
+        moduleListRO = Collections.unmodifiableList(moduleList);
         moduleList.forEach(TileModule::postModuleConstruction);
     }
     
     @Nullable
     public TileModule<?> module(Class<?> interfaceClazz) {
-        return modules.get(interfaceClazz);
+        final int slot = moduleLayout.slot(interfaceClazz);
+        return slot == -1 ? null : slotModule(slot);
+    }
+    
+    @Nullable
+    @Override
+    public TileModule<?> module(ModuleSlot slot) {
+        final int index = moduleLayout.slot(slot.id);
+        return index == -1 ? null : slotModule(index);
+    }
+    
+    private TileModule<?> slotModule(int slot) {
+        final var module = modules[slot];
+        return module != null ? module : createLazyModule(slot);
+    }
+    
+    private TileModule<?> createLazyModule(int slot) {
+        final var lazy = (ModuleRegistry.LazyTileModule) moduleLayout.constructor(slot);
+        final var module = moduleLayout.construct(slot, this);
+        modules[slot] = module;
+        moduleList.add(module);
+        invalidateCapabilityCache();
+        if (!lazy.saveKey().equals(module.saveKey())) {
+            MODULE_LOGGER.warn("Lazy module registered with save key \"" + lazy.saveKey() + "\" uses \"" + module.saveKey() + "\" for tile type \"" + getClass().getSimpleName() + "\"");
+        }
+        module.postModuleConstruction();
+        if (lazyNBT != null && lazyNBT[slot] != null) {
+            final var nbt = lazyNBT[slot];
+            lazyNBT[slot] = null;
+            module.readNBT(nbt);
+        }
+        if (added && !removed) {
+            module.onAdded();
+        }
+        return module;
+    }
+    
+    private void createLazyModulesFor(CompoundTag nbts) {
+        for (int i = 0; i < modules.length; i++) {
+            if (modules[i] == null && nbts.contains(((ModuleRegistry.LazyTileModule) moduleLayout.constructor(i)).saveKey())) {
+                createLazyModule(i);
+            }
+        }
     }
     
     @Override
@@ -68,6 +138,11 @@ public class PhosphophylliteTile extends BlockEntity implements IModularTile, ID
         return moduleListRO;
     }
     
+    @Override
+    public final IntrusiveFastArraySet.Indices fastArraySetIndices() {
+        return fastArraySetIndices;
+    }
+    
     @Override
     public final void clearRemoved() {
         super.clearRemoved();
@@ -99,7 +174,11 @@ public class PhosphophylliteTile extends BlockEntity implements IModularTile, ID
     public final void onLoad() {
         assert level != null;
         super.onLoad();
-        moduleList.forEach(TileModule::onAdded);
+        // lazy modules created by another module's onAdded are appended, and get theirs from this loop
+        for (int i = 0; i < moduleList.size(); i++) {
+            moduleList.get(i).onAdded();
+        }
+        added = true;
         onAdded();
         var worldUnloadTiles = (level.isClientSide() ? clientWorldUnloadEventTiles : serverWorldUnloadEventTiles).computeIfAbsent(level, __ -> new ObjectArrayList<>());
         index = worldUnloadTiles.size();
@@ -127,7 +206,10 @@ public class PhosphophylliteTile extends BlockEntity implements IModularTile, ID
         }
         assert level != null;
         onRemoved(chunkUnload);
-        moduleList.forEach(module -> module.onRemoved(chunkUnload));
+        invalidateCapabilityCache();
+        for (int i = 0; i < moduleList.size(); i++) {
+            moduleList.get(i).onRemoved(chunkUnload);
+        }
         removed = true;
         if (index == -1) {
             return;
@@ -157,7 +239,19 @@ public class PhosphophylliteTile extends BlockEntity implements IModularTile, ID
             readNBT(local);
         }
         CompoundTag subNBTs = compound.getCompound("sub");
-        for (var module : moduleList) {
+        for (int i = 0; i < modules.length; i++) {
+            final var module = modules[i];
+            if (module == null) {
+                // held until the module is created, or written back as is
+                final var key = ((ModuleRegistry.LazyTileModule) moduleLayout.constructor(i)).saveKey();
+                if (subNBTs.contains(key)) {
+                    if (lazyNBT == null) {
+                        lazyNBT = new CompoundTag[modules.length];
+                    }
+                    lazyNBT[i] = subNBTs.getCompound(key);
+                }
+                continue;
+            }
             String key = module.saveKey();
             if (key != null && subNBTs.contains(key)) {
                 CompoundTag nbt = subNBTs.getCompound(key);
@@ -166,9 +260,19 @@ public class PhosphophylliteTile extends BlockEntity implements IModularTile, ID
         }
     }
     
+    /**
+     * @param includeLazyNBT pass through the saved data of lazy modules that haven't been created, only for saves, its save format data so it must never be sent to clients
+     */
     @Nullable
-    private CompoundTag subNBTs(Function<TileModule<?>, CompoundTag> nbtSupplier) {
+    private CompoundTag subNBTs(Function<TileModule<?>, CompoundTag> nbtSupplier, boolean includeLazyNBT) {
         CompoundTag subNBTs = new CompoundTag();
+        if (includeLazyNBT && lazyNBT != null) {
+            for (int i = 0; i < lazyNBT.length; i++) {
+                if (lazyNBT[i] != null && modules[i] == null) {
+                    subNBTs.put(((ModuleRegistry.LazyTileModule) moduleLayout.constructor(i)).saveKey(), lazyNBT[i]);
+                }
+            }
+        }
         for (var module : moduleList) {
             CompoundTag nbt = nbtSupplier.apply(module);
             if (nbt != null) {
@@ -187,9 +291,21 @@ public class PhosphophylliteTile extends BlockEntity implements IModularTile, ID
         return subNBTs;
     }
     
+    @Override
+    public final void onModuleSaveDirty(TileModule<?> module) {
+        // only the first change between saves needs to reach the chunk
+        if (saveDirtySignalled || level == null) {
+            return;
+        }
+        saveDirtySignalled = true;
+        level.blockEntityChanged(worldPosition);
+    }
+    
     @Override
     public final void saveAdditional(CompoundTag nbt) {
-        CompoundTag subNBTs = subNBTs(TileModule::writeNBT);
+        saveDirtySignalled = false;
+        // modules that cache their save NBT only rewrite it when marked dirty
+        CompoundTag subNBTs = subNBTs(TileModule::saveNBT, true);
         if (subNBTs != null) {
             nbt.put("sub", subNBTs);
         }
@@ -217,6 +333,7 @@ public class PhosphophylliteTile extends BlockEntity implements IModularTile, ID
             handleDataNBT(local);
         }
         CompoundTag subNBTs = compound.getCompound("sub");
+        createLazyModulesFor(subNBTs);
         for (var module : moduleList) {
             String key = module.saveKey();
             if (key != null) {
@@ -238,7 +355,7 @@ public class PhosphophylliteTile extends BlockEntity implements IModularTile, ID
     @Override
     public final CompoundTag getUpdateTag() {
         CompoundTag nbt = super.getUpdateTag();
-        CompoundTag subNBTs = subNBTs(TileModule::getDataNBT);
+        CompoundTag subNBTs = subNBTs(TileModule::getDataNBT, false);
         if (subNBTs != null) {
             nbt.put("sub", subNBTs);
         }
@@ -266,38 +383,122 @@ public class PhosphophylliteTile extends BlockEntity implements IModularTile, ID
             return;
         }
         CompoundTag compound = pkt.getTag();
+        if (compound == null) {
+            return;
+        }
+        if (compound.contains("localdata")) {
+            handleDataNBT(compound.getCompound("localdata"));
+        }
         if (compound.contains("local")) {
             CompoundTag local = compound.getCompound("local");
             handleUpdateNBT(local);
         }
+        CompoundTag dataNBTs = compound.getCompound("data");
         CompoundTag subNBTs = compound.getCompound("sub");
+        if (dataNBTs.isEmpty() && subNBTs.isEmpty()) {
+            return;
+        }
+        createLazyModulesFor(dataNBTs);
+        createLazyModulesFor(subNBTs);
         for (var module : moduleList) {
             String key = module.saveKey();
-            if (key != null && subNBTs.contains(key)) {
-                CompoundTag nbt = subNBTs.getCompound(key);
-                module.handleUpdateNBT(nbt);
+            if (key == null) {
+                continue;
+            }
+            if (dataNBTs.contains(key)) {
+                module.handleDataNBT(dataNBTs.getCompound(key));
+            }
+            if (subNBTs.contains(key)) {
+                module.handleUpdateNBT(subNBTs.getCompound(key));
             }
         }
     }
     
+    /**
+     * Flags the tile's own data as changed since the last update packet, getDataNBT will be sent in the next one
+     */
+    protected final void markUpdateDirty() {
+        localUpdateDirty = true;
+        requestUpdatePacket();
+    }
+    
+    @Override
+    public final void onModuleUpdateDirty(TileModule<?> module) {
+        requestUpdatePacket();
+    }
+    
+    private void requestUpdatePacket() {
+        if (updatePacketRequested || level == null || level.isClientSide) {
+            return;
+        }
+        updatePacketRequested = true;
+        final var state = getBlockState();
+        level.sendBlockUpdated(worldPosition, state, state, Block.UPDATE_CLIENTS);
+    }
+    
     @Nullable
     @Override
     public final ClientboundBlockEntityDataPacket getUpdatePacket() {
-        boolean sendPacket = false;
-        CompoundTag subNBTs = subNBTs(TileModule::getUpdateNBT);
-        CompoundTag nbt = new CompoundTag();
-        if (subNBTs != null) {
-            nbt.put("sub", subNBTs);
+        updatePacketRequested = false;
+        // allocated lazily, a tile with nothing to send shouldn't allocate anything
+        CompoundTag nbt = null;
+        CompoundTag dataNBTs = null;
+        CompoundTag subNBTs = null;
+        for (int i = 0; i < moduleList.size(); i++) {
+            final var module = moduleList.get(i);
+            final boolean dirty = module.isUpdateDirty();
+            module.clearUpdateDirty();
+            String key = module.saveKey();
+            if (key == null) {
+                continue;
+            }
+            CompoundTag moduleNBT = module.getUpdateNBT();
+            if (moduleNBT != null) {
+                if (subNBTs == null) {
+                    subNBTs = new CompoundTag();
+                }
+                subNBTs.put(key, moduleNBT);
+            } else if (dirty) {
+                moduleNBT = module.getDataNBT();
+                if (moduleNBT != null) {
+                    if (dataNBTs == null) {
+                        dataNBTs = new CompoundTag();
+                    }
+                    dataNBTs.put(key, moduleNBT);
+                }
+            }
+        }
+        if (subNBTs != null || dataNBTs != null) {
+            nbt = new CompoundTag();
+            if (subNBTs != null) {
+                nbt.put("sub", subNBTs);
+            }
+            if (dataNBTs != null) {
+                nbt.put("data", dataNBTs);
+            }
         }
         CompoundTag localNBT = getUpdateNBT();
         if (localNBT != null) {
-            sendPacket = true;
+            if (nbt == null) {
+                nbt = new CompoundTag();
+            }
             nbt.put("local", localNBT);
         }
-        if (!sendPacket) {
+        if (localUpdateDirty) {
+            localUpdateDirty = false;
+            CompoundTag localDataNBT = getDataNBT();
+            if (!localDataNBT.isEmpty()) {
+                if (nbt == null) {
+                    nbt = new CompoundTag();
+                }
+                nbt.put("localdata", localDataNBT);
+            }
+        }
+        if (nbt == null) {
             return null;
         }
-        return ClientboundBlockEntityDataPacket.create(this, e -> nbt);
+        final var finalNBT = nbt;
+        return ClientboundBlockEntityDataPacket.create(this, e -> finalNBT);
     }
     
     protected void handleUpdateNBT(@SuppressWarnings("unused") CompoundTag nbt) {
@@ -308,10 +509,92 @@ public class PhosphophylliteTile extends BlockEntity implements IModularTile, ID
         return null;
     }
     
+    @Override
+    public final void onModuleCapabilitiesChanged(TileModule<?> module) {
+        invalidateCapabilityCache();
+    }
+    
+    /**
+     * Drops cached module capability lookups, the tile's own capability override is never cached
+     */
+    protected final void invalidateCapabilityCache() {
+        cachedCapabilities = null;
+        cachedCapabilityResults = null;
+        cachedCapabilityCount = 0;
+    }
+    
+    private LazyOptional<?>[] capabilityCacheRow(Capability<?> cap) {
+        if (cachedCapabilities == null || cachedCapabilityResults == null) {
+            cachedCapabilities = new Capability<?>[2];
+            cachedCapabilityResults = new LazyOptional<?>[2][];
+        }
+        for (int i = 0; i < cachedCapabilityCount; i++) {
+            if (cachedCapabilities[i] == cap) {
+                return cachedCapabilityResults[i];
+            }
+        }
+        if (cachedCapabilityCount == cachedCapabilities.length) {
+            cachedCapabilities = Arrays.copyOf(cachedCapabilities, cachedCapabilityCount * 2);
+            cachedCapabilityResults = Arrays.copyOf(cachedCapabilityResults, cachedCapabilityCount * 2);
+        }
+        final var row = new LazyOptional<?>[7];
+        cachedCapabilities[cachedCapabilityCount] = cap;
+        cachedCapabilityResults[cachedCapabilityCount] = row;
+        cachedCapabilityCount++;
+        return row;
+    }
+    
+    // if the tile's class overrides capability, there is no signal for when its result changes, so it is asked every time
+    private static final ClassValue<Boolean> OVERRIDES_CAPABILITY = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            // protected, so getMethod can't see it
+            for (var clazz = type; clazz != null && clazz != PhosphophylliteTile.class; clazz = clazz.getSuperclass()) {
+                try {
+                    clazz.getDeclaredMethod("capability", Capability.class, Direction.class);
+                    return true;
+                } catch (NoSuchMethodException ignored) {
+                }
+            }
+            return false;
+        }
+    };
+    
     @Nonnull
     public final <T> LazyOptional<T> getCapability(final Capability<T> cap, final @Nullable Direction side) {
-        var optional = capability(cap, side);
-        for (var module : moduleList) {
+        if (OVERRIDES_CAPABILITY.get(getClass())) {
+            final var own = capability(cap, side);
+            if (own.isPresent()) {
+                return own;
+            }
+        }
+        final int sideIndex = side == null ? 6 : side.get3DDataValue();
+        final var cached = capabilityCacheRow(cap)[sideIndex];
+        // a present result that was since invalidated needs to be looked up again
+        if (cached != null && (cached == EMPTY_CAPABILITY || cached.isPresent())) {
+            return cached.cast();
+        }
+        final var optional = resolveCapability(cap, side);
+        // resolving may create lazy modules, which drops the cache
+        capabilityCacheRow(cap)[sideIndex] = optional.isPresent() ? optional : EMPTY_CAPABILITY;
+        return optional;
+    }
+    
+    private static final LazyOptional<?> EMPTY_CAPABILITY = LazyOptional.empty();
+    
+    private <T> LazyOptional<T> resolveCapability(final Capability<T> cap, final @Nullable Direction side) {
+        LazyOptional<T> optional = LazyOptional.empty();
+        for (final int entry : capabilityTable.row(cap, modules)) {
+            final TileModule<?> module;
+            if (entry >= 0) {
+                // creates lazy modules that declared this capability
+                module = slotModule(entry);
+            } else {
+                module = modules[~entry];
+                if (module == null || !module.mayProvideCapabilities()) {
+                    continue;
+                }
+            }
             var moduleOptional = module.capability(cap, side);
             if (moduleOptional.isPresent()) {
                 if (optional.isPresent()) {
@@ -0,0 +1,81 @@
+package net.roguelogix.phosphophyllite.modular.tile;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraftforge.common.capabilities.Capability;
+import net.roguelogix.phosphophyllite.modular.api.ModuleConstructionPlan;
+import net.roguelogix.phosphophyllite.modular.api.ModuleRegistry;
+import net.roguelogix.phosphophyllite.modular.api.TileModule;
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * For one tile class, the module slots that can ever provide each capability, in slot order
+ * <p>
+ * Modules registered with their capabilities are only listed for those, other modules are listed for every capability if their class overrides capability
+ * Lazy modules are listed for their declared capabilities, and for others only once they have been created
+ * A capability's row is built on its first lookup by any tile of the class, and shared by all of them
+ */
+@NonnullDefault
+final class TileCapabilityTable {
+    
+    private static final ClassValue<TileCapabilityTable> TABLES = new ClassValue<>() {
+        @Override
+        protected TileCapabilityTable computeValue(Class<?> type) {
+            return new TileCapabilityTable(ModuleRegistry.tilePlan(type));
+        }
+    };
+    
+    private final ModuleConstructionPlan<BlockEntity, TileModule<?>> plan;
+    // entries >= 0 are slots to ask, creating the module if its lazy, ~slot for lazy slots only asked if the module already exists
+    private final ConcurrentHashMap<Capability<?>, int[]> rows = new ConcurrentHashMap<>();
+    
+    private TileCapabilityTable(ModuleConstructionPlan<BlockEntity, TileModule<?>> plan) {
+        this.plan = plan;
+    }
+    
+    static TileCapabilityTable get(Class<?> tileClass, ModuleConstructionPlan<BlockEntity, TileModule<?>> plan) {
+        var table = TABLES.get(tileClass);
+        if (table.plan != plan) {
+            TABLES.remove(tileClass);
+            table = TABLES.get(tileClass);
+            if (table.plan != plan) {
+                // tile was built from an older plan than the current registry
+                table = new TileCapabilityTable(plan);
+            }
+        }
+        return table;
+    }
+    
+    /**
+     * @param modules the asking tile's modules, by slot, every tile of the class has the same module classes in the same slots
+     */
+    int[] row(Capability<?> cap, TileModule<?>[] modules) {
+        final var row = rows.get(cap);
+        if (row != null) {
+            return row;
+        }
+        return rows.computeIfAbsent(cap, k -> buildRow(cap, modules));
+    }
+    
+    private int[] buildRow(Capability<?> cap, TileModule<?>[] modules) {
+        final var row = new IntArrayList();
+        for (int slot = 0; slot < plan.size(); slot++) {
+            final var constructor = plan.constructor(slot);
+            if (constructor instanceof ModuleRegistry.LazyTileModule lazy) {
+                row.add(lazy.provides(cap) ? slot : ~slot);
+            } else if (constructor instanceof ModuleRegistry.CapabilityTileModule declared) {
+                if (declared.provides(cap)) {
+                    row.add(slot);
+                }
+            } else {
+                final var module = modules[slot];
+                if (module != null && module.mayProvideCapabilities()) {
+                    row.add(slot);
+                }
+            }
+        }
+        return row.toIntArray();
+    }
+}
@@ -316,7 +316,7 @@ public class MultiblockController<
         }
         
         if (attemptReattach) {
-            Queues.serverThread.enqueue(toDetachModule::attachToNeighbors);
+            Queues.serverThread.enqueueThisTick(toDetachModule::attachToNeighbors);
         }
         
         toDetachModule.nullNeighbors();
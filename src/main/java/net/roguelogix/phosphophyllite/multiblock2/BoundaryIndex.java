@@ -0,0 +1,132 @@
+package net.roguelogix.phosphophyllite.multiblock2;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.roguelogix.phosphophyllite.repack.org.joml.Vector3ic;
+import net.roguelogix.phosphophyllite.util.FastArraySet;
+import net.roguelogix.phosphophyllite.util.IntrusiveFastArraySet;
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+
+import java.util.function.Consumer;
+
+/**
+ * A controller's parts, by the x, y, and z planes they are in, so the parts on a face of the bounding box can be found without scanning every part
+ * <p>
+ * A face is just the plane at the bounding box's min or max on that axis, so the index doesn't need rebuilding when the bounding box changes
+ * Attaching or detaching a part is constant work, a face query is proportional to the face's area
+ */
+@NonnullDefault
+public final class BoundaryIndex<ModuleType extends MultiblockTileModule<?, ?, ?>> {
+    
+    private static final FastArraySet<?> EMPTY = new IntrusiveFastArraySet<>();
+    
+    private final Vector3ic min;
+    private final Vector3ic max;
+    // indexed by Direction.Axis ordinal, plane coordinate -> parts in it
+    @SuppressWarnings("unchecked")
+    private final Int2ObjectOpenHashMap<FastArraySet<ModuleType>>[] planes = new Int2ObjectOpenHashMap[]{new Int2ObjectOpenHashMap<>(), new Int2ObjectOpenHashMap<>(), new Int2ObjectOpenHashMap<>()};
+    
+    BoundaryIndex(Vector3ic min, Vector3ic max) {
+        this.min = min;
+        this.max = max;
+    }
+    
+    private static int coordinate(BlockPos pos, int axis) {
+        return switch (axis) {
+            case 0 -> pos.getX();
+            case 1 -> pos.getY();
+            default -> pos.getZ();
+        };
+    }
+    
+    private static int coordinate(Vector3ic pos, int axis) {
+        return switch (axis) {
+            case 0 -> pos.x();
+            case 1 -> pos.y();
+            default -> pos.z();
+        };
+    }
+    
+    void add(ModuleType module) {
+        final var pos = module.iface.getBlockPos();
+        for (int axis = 0; axis < 3; axis++) {
+            planes[axis].computeIfAbsent(coordinate(pos, axis), k -> new IntrusiveFastArraySet<>()).add(module);
+        }
+    }
+    
+    void remove(ModuleType module) {
+        final var pos = module.iface.getBlockPos();
+        for (int axis = 0; axis < 3; axis++) {
+            final int coordinate = coordinate(pos, axis);
+            final var plane = planes[axis].get(coordinate);
+            if (plane == null) {
+                continue;
+            }
+            plane.remove(module);
+            if (plane.size() == 0) {
+                planes[axis].remove(coordinate);
+            }
+        }
+    }
+    
+    /**
+     * The returned set must not be modified, and isn't updated if the bounding box moves, re-fetch it instead
+     *
+     * @return parts in the given plane
+     */
+    public FastArraySet<ModuleType> plane(Direction.Axis axis, int coordinate) {
+        final var plane = planes[axis.ordinal()].get(coordinate);
+        //noinspection unchecked
+        return plane != null ? plane : (FastArraySet<ModuleType>) EMPTY;
+    }
+    
+    /**
+     * Only as current as the controller's bounding box, which may lag part removal until the controller's next update
+     *
+     * @return parts on that face of the bounding box
+     */
+    public FastArraySet<ModuleType> face(Direction direction) {
+        final int axis = direction.getAxis().ordinal();
+        final var extreme = direction.getAxisDirection() == Direction.AxisDirection.NEGATIVE ? min : max;
+        return plane(direction.getAxis(), coordinate(extreme, axis));
+    }
+    
+    /**
+     * Calls the consumer once for every part on any face of the bounding box, parts on edges and corners aren't repeated
+     * Parts must not be attached or detached from the consumer
+     */
+    public void forEachOnBoundary(Consumer<ModuleType> consumer) {
+        for (int axis = 0; axis < 3; axis++) {
+            final int minCoordinate = coordinate(min, axis);
+            final int maxCoordinate = coordinate(max, axis);
+            forEachInPlane(axis, minCoordinate, consumer);
+            if (maxCoordinate != minCoordinate) {
+                forEachInPlane(axis, maxCoordinate, consumer);
+            }
+        }
+    }
+    
+    private void forEachInPlane(int axis, int coordinate, Consumer<ModuleType> consumer) {
+        final var plane = planes[axis].get(coordinate);
+        if (plane == null) {
+            return;
+        }
+        for (int i = 0; i < plane.size(); i++) {
+            final var module = plane.get(i);
+            final var pos = module.iface.getBlockPos();
+            // parts also on a face of an earlier axis were already visited from it
+            boolean visited = false;
+            for (int earlierAxis = 0; earlierAxis < axis; earlierAxis++) {
+                final int posCoordinate = coordinate(pos, earlierAxis);
+                if (posCoordinate == coordinate(min, earlierAxis) || posCoordinate == coordinate(max, earlierAxis)) {
+                    visited = true;
+                    break;
+                }
+            }
+            if (!visited) {
+                consumer.accept(module);
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package net.roguelogix.phosphophyllite.multiblock2;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.ChunkPos;
+import net.roguelogix.phosphophyllite.repack.org.joml.Vector3i;
+import net.roguelogix.phosphophyllite.repack.org.joml.Vector3ic;
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+
+import javax.annotation.Nullable;
+import java.util.function.Consumer;
+
+/**
+ * One level's controllers, bucketed by every chunk their bounding box overlaps
+ * <p>
+ * A controller's bounding box always covers its parts, but only shrinks on its next update, until then buckets may hold controllers that no longer reach a chunk
+ * Queries check the current bounding box (and for points, the parts themselves), so they never return a controller that doesn't match
+ */
+@NonnullDefault
+final class ControllerSpatialIndex {
+    
+    private final Long2ObjectOpenHashMap<ObjectArrayList<MultiblockController<?, ?, ?>>> buckets = new Long2ObjectOpenHashMap<>();
+    
+    boolean isEmpty() {
+        return buckets.isEmpty();
+    }
+    
+    /**
+     * Rebuckets the controller if the chunks its bounding box covers have changed, empty controllers are removed
+     */
+    void update(MultiblockController<?, ?, ?> controller) {
+        if (controller.blocks.isEmpty()) {
+            remove(controller);
+            return;
+        }
+        final var min = controller.min();
+        final var max = controller.max();
+        final int minChunkX = min.x() >> 4;
+        final int minChunkZ = min.z() >> 4;
+        final int maxChunkX = max.x() >> 4;
+        final int maxChunkZ = max.z() >> 4;
+        if (controller.spatiallyIndexed
+                && controller.indexedMinChunkX == minChunkX && controller.indexedMinChunkZ == minChunkZ
+                && controller.indexedMaxChunkX == maxChunkX && controller.indexedMaxChunkZ == maxChunkZ) {
+            return;
+        }
+        remove(controller);
+        for (int x = minChunkX; x <= maxChunkX; x++) {
+            for (int z = minChunkZ; z <= maxChunkZ; z++) {
+                buckets.computeIfAbsent(ChunkPos.asLong(x, z), k -> new ObjectArrayList<>()).add(controller);
+            }
+        }
+        controller.spatiallyIndexed = true;
+        controller.indexedMinChunkX = minChunkX;
+        controller.indexedMinChunkZ = minChunkZ;
+        controller.indexedMaxChunkX = maxChunkX;
+        controller.indexedMaxChunkZ = maxChunkZ;
+    }
+    
+    void remove(MultiblockController<?, ?, ?> controller) {
+        if (!controller.spatiallyIndexed) {
+            return;
+        }
+        controller.spatiallyIndexed = false;
+        for (int x = controller.indexedMinChunkX; x <= controller.indexedMaxChunkX; x++) {
+            for (int z = controller.indexedMinChunkZ; z <= controller.indexedMaxChunkZ; z++) {
+                final long chunk = ChunkPos.asLong(x, z);
+                final var bucket = buckets.get(chunk);
+                if (bucket == null) {
+                    continue;
+                }
+                for (int i = 0; i < bucket.size(); i++) {
+                    if (bucket.get(i) == controller) {
+                        // order doesn't matter, swap remove
+                        bucket.set(i, bucket.get(bucket.size() - 1));
+                        bucket.pop();
+                        break;
+                    }
+                }
+                if (bucket.isEmpty()) {
+                    buckets.remove(chunk);
+                }
+            }
+        }
+    }
+    
+    @Nullable
+    MultiblockController<?, ?, ?> controllerAt(BlockPos pos) {
+        final var bucket = buckets.get(ChunkPos.asLong(pos.getX() >> 4, pos.getZ() >> 4));
+        if (bucket == null) {
+            return null;
+        }
+        for (int i = 0; i < bucket.size(); i++) {
+            final var controller = bucket.get(i);
+            if (contains(controller.min(), controller.max(), pos) && controller.blocks.containsPos(pos)) {
+                return controller;
+            }
+        }
+        return null;
+    }
+    
+    void controllersInBox(Vector3ic min, Vector3ic max, Consumer<MultiblockController<?, ?, ?>> consumer) {
+        final int minChunkX = min.x() >> 4;
+        final int minChunkZ = min.z() >> 4;
+        final int maxChunkX = max.x() >> 4;
+        final int maxChunkZ = max.z() >> 4;
+        for (int x = minChunkX; x <= maxChunkX; x++) {
+            for (int z = minChunkZ; z <= maxChunkZ; z++) {
+                final var bucket = buckets.get(ChunkPos.asLong(x, z));
+                if (bucket == null) {
+                    continue;
+                }
+                for (int i = 0; i < bucket.size(); i++) {
+                    final var controller = bucket.get(i);
+                    // a controller is in every bucket it overlaps, only report it from the first one the query also covers
+                    if (x != Math.max(minChunkX, controller.indexedMinChunkX) || z != Math.max(minChunkZ, controller.indexedMinChunkZ)) {
+                        continue;
+                    }
+                    if (overlaps(controller.min(), controller.max(), min, max)) {
+                        consumer.accept(controller);
+                    }
+                }
+            }
+        }
+    }
+    
+    void controllersInChunk(int chunkX, int chunkZ, Consumer<MultiblockController<?, ?, ?>> consumer) {
+        final int minX = chunkX << 4;
+        final int minZ = chunkZ << 4;
+        controllersInBox(new Vector3i(minX, Integer.MIN_VALUE, minZ), new Vector3i(minX + 15, Integer.MAX_VALUE, minZ + 15), consumer);
+    }
+    
+    private static boolean contains(Vector3ic min, Vector3ic max, BlockPos pos) {
+        return pos.getX() >= min.x() && pos.getX() <= max.x()
+                && pos.getY() >= min.y() && pos.getY() <= max.y()
+                && pos.getZ() >= min.z() && pos.getZ() <= max.z();
+    }
+    
+    private static boolean overlaps(Vector3ic minA, Vector3ic maxA, Vector3ic minB, Vector3ic maxB) {
+        return minA.x() <= maxB.x() && maxA.x() >= minB.x()
+                && minA.y() <= maxB.y() && maxA.y() >= minB.y()
+                && minA.z() <= maxB.z() && maxA.z() >= minB.z();
+    }
+}
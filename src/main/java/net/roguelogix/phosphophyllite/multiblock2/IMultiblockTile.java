@@ -4,6 +4,8 @@ import net.minecraft.MethodsReturnNonnullByDefault;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.entity.BlockEntity;
 import net.roguelogix.phosphophyllite.modular.api.IModularTile;
+import net.roguelogix.phosphophyllite.modular.api.ModuleRegistry;
+import net.roguelogix.phosphophyllite.modular.api.ModuleSlot;
 import net.roguelogix.phosphophyllite.modular.tile.IIsTickingTracker;
 
 import javax.annotation.Nullable;
@@ -17,6 +19,8 @@ public interface IMultiblockTile<
         ControllerType extends MultiblockController<TileType, BlockType, ControllerType>
         > extends IModularTile, IIsTickingTracker.Tile {
     
+    ModuleSlot MULTIBLOCK_MODULE_SLOT = ModuleRegistry.tileSlot(IMultiblockTile.class);
+    
     ControllerType createController();
     
     default ControllerType controller() {
@@ -31,7 +35,7 @@ public interface IMultiblockTile<
     
     default MultiblockTileModule<TileType, BlockType, ControllerType> multiblockModule() {
         //noinspection unchecked,ConstantConditions
-        return (MultiblockTileModule<TileType, BlockType, ControllerType>) module(IMultiblockTile.class);
+        return (MultiblockTileModule<TileType, BlockType, ControllerType>) module(MULTIBLOCK_MODULE_SLOT);
     }
     
     default MultiblockTileModule<TileType, BlockType, ControllerType> createMultiblockModule() {
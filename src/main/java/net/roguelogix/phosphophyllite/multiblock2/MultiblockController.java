@@ -12,6 +12,7 @@ import net.roguelogix.phosphophyllite.Phosphophyllite;
 import net.roguelogix.phosphophyllite.debug.IDebuggable;
 import net.roguelogix.phosphophyllite.multiblock2.modular.IModularMultiblockController;
 import net.roguelogix.phosphophyllite.multiblock2.modular.MultiblockControllerModule;
+import net.roguelogix.phosphophyllite.multiblock2.modular.MultiblockControllerModule.Hook;
 import net.roguelogix.phosphophyllite.multiblock2.modular.MultiblockControllerModuleRegistry;
 import net.roguelogix.phosphophyllite.repack.org.joml.Vector3i;
 import net.roguelogix.phosphophyllite.repack.org.joml.Vector3ic;
@@ -37,9 +38,17 @@ public class MultiblockController<
     
     
     public final Level level;
+    /**
+     * controller modules may register columns into this for per part state they iterate in bulk, see ModuleMap.Column
+     */
     @SuppressWarnings("unchecked")
     public final ModuleMap<MultiblockTileModule<TileType, BlockType, ControllerType>, TileType> blocks = new ModuleMap<MultiblockTileModule<TileType, BlockType, ControllerType>, TileType>(new MultiblockTileModule[0]);
     
+    /**
+     * parts bucketed by the interfaces they implement, modules subscribe to the buckets they need instead of testing every part themselves
+     */
+    public final PartRegistry<TileType> parts = new PartRegistry<>(blocks);
+    
     public final Predicate<BlockEntity> tileTypeValidator;
     public final Predicate<Block> blockTypeValidator;
     
@@ -49,6 +58,18 @@ public class MultiblockController<
     private final Vector3i minExtremeBlocks = new Vector3i();
     private final Vector3i maxExtremeBlocks = new Vector3i();
     
+    /**
+     * parts by the planes they are in, for finding the parts on the faces of the bounding box
+     */
+    public final BoundaryIndex<MultiblockTileModule<TileType, BlockType, ControllerType>> boundary = new BoundaryIndex<>(minCoord, maxCoord);
+    
+    // chunks this controller is bucketed under in the level's spatial index, see ControllerSpatialIndex
+    boolean spatiallyIndexed = false;
+    int indexedMinChunkX;
+    int indexedMinChunkZ;
+    int indexedMaxChunkX;
+    int indexedMaxChunkZ;
+    
     private long lastTick = -1;
     private long checkForDetachmentsAtTick = Long.MAX_VALUE;
     
@@ -87,15 +108,20 @@ public class MultiblockController<
         final var moduleList = new ArrayList<MultiblockControllerModule<TileType, BlockType, ControllerType>>();
         moduleListRO = Collections.unmodifiableList(moduleList);
         
-        final Class<?> thisClazz = this.getClass();
-        MultiblockControllerModuleRegistry.forEach((clazz, constructor) -> {
-            if (clazz.isAssignableFrom(thisClazz)) {
-                //noinspection unchecked
-                var module = (MultiblockControllerModule<TileType, BlockType, ControllerType>) constructor.apply(this);
-                modules.put(clazz, module);
-                moduleList.add(module);
-            }
-        });
+        final var plan = MultiblockControllerModuleRegistry.plan(this.getClass());
+        for (int i = 0; i < plan.size(); i++) {
+            //noinspection unchecked
+            var module = (MultiblockControllerModule<TileType, BlockType, ControllerType>) plan.construct(i, this);
+            modules.put(plan.moduleInterface(i), module);
+            moduleList.add(module);
+        }
+        final var hooks = Hook.values();
+        //noinspection unchecked
+        hookModules = new MultiblockControllerModule[hooks.length][];
+        for (final var hook : hooks) {
+            //noinspection unchecked
+            hookModules[hook.ordinal()] = moduleList.stream().filter(module -> module.overrides(hook)).toArray(MultiblockControllerModule[]::new);
+        }
         moduleListRO.forEach(MultiblockControllerModule::postModuleConstruction);
     }
     
@@ -114,6 +140,8 @@ public class MultiblockController<
     
     private final Object2ObjectOpenHashMap<Class<?>, MultiblockControllerModule<TileType, BlockType, ControllerType>> modules = new Object2ObjectOpenHashMap<>();
     private final List<MultiblockControllerModule<TileType, BlockType, ControllerType>> moduleListRO;
+    // by Hook ordinal, only the modules that override that hook
+    private final MultiblockControllerModule<TileType, BlockType, ControllerType>[][] hookModules;
     
     @Override
     @Nullable
@@ -126,6 +154,10 @@ public class MultiblockController<
         return moduleListRO;
     }
     
+    private MultiblockControllerModule<TileType, BlockType, ControllerType>[] hookModules(Hook hook) {
+        return hookModules[hook.ordinal()];
+    }
+    
     
     @Nullable
     public MultiblockTileModule<TileType, BlockType, ControllerType> tileModule(int x, int y, int z) {
@@ -161,7 +193,7 @@ public class MultiblockController<
         var toAttachModule = (MultiblockTileModule<TileType, BlockType, ControllerType>) toAttachGeneric;
         var toAttachTile = toAttachModule.iface;
         
-        for (final var module : modules()) {
+        for (final var module : hookModules(Hook.CAN_ATTACH_PART)) {
             if (!module.canAttachPart(toAttachTile)) {
                 return;
             }
@@ -187,8 +219,18 @@ public class MultiblockController<
             // weird edge case that happened, clearing merged controller's lists of blocks fixed this, but just in case
             return;
         }
+        parts.add(toAttachTile);
+        boundary.add(toAttachModule);
         
         BlockPos toAttachPos = toAttachTile.getBlockPos();
+        if (blocks.size() == 1) {
+            // first part, the old extremes don't describe anything, so start from this part instead of recalculating later
+            minCoord.set(toAttachPos.getX(), toAttachPos.getY(), toAttachPos.getZ());
+            maxCoord.set(minCoord);
+            minExtremeBlocks.set(0);
+            maxExtremeBlocks.set(0);
+            updateExtremes = false;
+        }
         // update minmax
         if (toAttachPos.getX() < minCoord.x) {
             minCoord.x = toAttachPos.getX();
@@ -226,23 +268,24 @@ public class MultiblockController<
         } else if (toAttachPos.getZ() == maxCoord.z) {
             maxExtremeBlocks.z++;
         }
+        MultiblockRegistry.updateSpatialIndex(this);
         
-        for (var module : modules()) {
+        for (var module : hookModules(Hook.PART_ADDED)) {
             module.onPartAdded(toAttachTile);
         }
         onPartAdded(toAttachTile);
         if (merging) {
-            for (var module : modules()) {
+            for (var module : hookModules(Hook.PART_ATTACHED)) {
                 module.onPartAttached(toAttachTile);
             }
             onPartAttached(toAttachTile);
         } else if (toAttachModule.preExistingBlock) {
-            for (var module : modules()) {
+            for (var module : hookModules(Hook.PART_LOADED)) {
                 module.onPartLoaded(toAttachTile);
             }
             onPartLoaded(toAttachTile);
         } else {
-            for (var module : modules()) {
+            for (var module : hookModules(Hook.PART_PLACED)) {
                 module.onPartPlaced(toAttachTile);
             }
             onPartPlaced(toAttachTile);
@@ -258,24 +301,26 @@ public class MultiblockController<
         }
         
         final var toDetachTile = toDetachModule.iface;
+        parts.remove(toDetachTile);
+        boundary.remove(toDetachModule);
         
         if (merging) {
-            for (var module : modules()) {
+            for (var module : hookModules(Hook.PART_DETACHED)) {
                 module.onPartDetached(toDetachTile);
             }
             onPartDetached(toDetachTile);
         } else if (chunkUnload) {
-            for (var module : modules()) {
+            for (var module : hookModules(Hook.PART_UNLOADED)) {
                 module.onPartUnloaded(toDetachTile);
             }
             onPartUnloaded(toDetachTile);
         } else {
-            for (var module : modules()) {
+            for (var module : hookModules(Hook.PART_BROKEN)) {
                 module.onPartBroken(toDetachTile);
             }
             onPartBroken(toDetachTile);
         }
-        for (var module : modules()) {
+        for (var module : hookModules(Hook.PART_REMOVED)) {
             module.onPartRemoved(toDetachTile);
         }
         onPartRemoved(toDetachTile);
@@ -318,6 +363,10 @@ public class MultiblockController<
             }
         }
         
+        if (blocks.isEmpty()) {
+            MultiblockRegistry.updateSpatialIndex(this);
+        }
+        
         if (checkForDetachments) {
             this.checkForDetachmentsAtTick = Phosphophyllite.tickNumber() + 2;
             if (!chunkUnload) {
@@ -507,6 +556,14 @@ public class MultiblockController<
         }
     }
     
+    /**
+     * called when the controller is kept in memory after its last part unloads, drops state referencing the unloaded parts
+     */
+    void parked() {
+        removedBlocks.clear();
+        checkForDetachmentsAtTick = Long.MAX_VALUE;
+    }
+    
     public final void suicide() {
         if (blocks.isEmpty()) {
             return;
@@ -533,7 +590,10 @@ public class MultiblockController<
         processDetachments();
         processMerges();
         updateMinMaxCoordinates();
-        modules().forEach(MultiblockControllerModule::update);
+        MultiblockRegistry.updateSpatialIndex(this);
+        for (final var module : hookModules(Hook.UPDATE)) {
+            module.update();
+        }
         
     }
     
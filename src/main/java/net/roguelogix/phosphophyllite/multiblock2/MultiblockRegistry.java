@@ -1,17 +1,26 @@
 package net.roguelogix.phosphophyllite.multiblock2;
 
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import net.minecraft.core.BlockPos;
 import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.Level;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.TickEvent;
 import net.minecraftforge.event.level.LevelEvent;
 import net.minecraftforge.event.server.ServerStoppedEvent;
 import net.minecraftforge.eventbus.api.EventPriority;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.roguelogix.phosphophyllite.Phosphophyllite;
 import net.roguelogix.phosphophyllite.registry.OnModLoad;
+import net.roguelogix.phosphophyllite.repack.org.joml.Vector3ic;
 import net.roguelogix.phosphophyllite.util.Util;
 
+import javax.annotation.Nullable;
+import java.util.function.Consumer;
+
 public final class MultiblockRegistry {
     
     private static final Object2ObjectOpenHashMap<ServerLevel, ObjectArrayList<MultiblockController<?, ?, ?>>> controllersToTick = new Object2ObjectOpenHashMap<>();
@@ -24,6 +33,157 @@ public final class MultiblockRegistry {
     
     public static void removeController(MultiblockController<?, ?, ?> controller) {
         oldControllers.add(controller);
+        //noinspection SuspiciousMethodCalls
+        final var spatialIndex = spatialIndices.get(controller.level);
+        if (spatialIndex != null) {
+            spatialIndex.remove(controller);
+        }
+    }
+    
+    private static final Object2ObjectOpenHashMap<Level, ControllerSpatialIndex> spatialIndices = new Object2ObjectOpenHashMap<>();
+    
+    /**
+     * called by controllers when their bounding box may have changed, cheap if the chunks it covers haven't
+     */
+    static void updateSpatialIndex(MultiblockController<?, ?, ?> controller) {
+        if (controller.blocks.isEmpty()) {
+            if (controller.spatiallyIndexed) {
+                //noinspection SuspiciousMethodCalls
+                final var spatialIndex = spatialIndices.get(controller.level);
+                if (spatialIndex != null) {
+                    spatialIndex.remove(controller);
+                    if (spatialIndex.isEmpty()) {
+                        spatialIndices.remove(controller.level);
+                    }
+                }
+            }
+            return;
+        }
+        spatialIndices.computeIfAbsent(controller.level, k -> new ControllerSpatialIndex()).update(controller);
+    }
+    
+    /**
+     * Spatial queries, these don't touch the world, so they are safe to use for positions in unloaded chunks
+     * Only controllers with attached parts are found, parked controllers aren't
+     *
+     * @return the controller that has a part at this position
+     */
+    @Nullable
+    public static MultiblockController<?, ?, ?> controllerAt(Level level, BlockPos pos) {
+        //noinspection SuspiciousMethodCalls
+        final var spatialIndex = spatialIndices.get(level);
+        return spatialIndex == null ? null : spatialIndex.controllerAt(pos);
+    }
+    
+    /**
+     * Calls the consumer once for every controller whose bounding box overlaps the box, inclusive
+     */
+    public static void controllersInBox(Level level, Vector3ic min, Vector3ic max, Consumer<MultiblockController<?, ?, ?>> consumer) {
+        //noinspection SuspiciousMethodCalls
+        final var spatialIndex = spatialIndices.get(level);
+        if (spatialIndex != null) {
+            spatialIndex.controllersInBox(min, max, consumer);
+        }
+    }
+    
+    /**
+     * Calls the consumer once for every controller whose bounding box overlaps the chunk
+     */
+    public static void controllersInChunk(Level level, int chunkX, int chunkZ, Consumer<MultiblockController<?, ?, ?>> consumer) {
+        //noinspection SuspiciousMethodCalls
+        final var spatialIndex = spatialIndices.get(level);
+        if (spatialIndex != null) {
+            spatialIndex.controllersInChunk(chunkX, chunkZ, consumer);
+        }
+    }
+    
+    private record ParkedController(MultiblockController<?, ?, ?> controller, long[] positions, long parkedAt) {
+    }
+    
+    private static final class ParkedLevel {
+        // oldest first, entries are never accessed without being removed, so this is also LRU order
+        final Long2ObjectLinkedOpenHashMap<ParkedController> byID = new Long2ObjectLinkedOpenHashMap<>();
+        final Long2LongOpenHashMap idByPos = new Long2LongOpenHashMap();
+        
+        void remove(long id) {
+            final var parked = byID.remove(id);
+            if (parked == null) {
+                return;
+            }
+            for (final long pos : parked.positions) {
+                idByPos.remove(pos, id);
+            }
+        }
+    }
+    
+    private static final Object2ObjectOpenHashMap<Level, ParkedLevel> parkedControllers = new Object2ObjectOpenHashMap<>();
+    
+    /**
+     * Keeps a fully unloaded controller in memory, so that when its parts load again they reattach to it instead of building a new controller
+     * Parked controllers are dropped after being idle for too long, or when too many are parked
+     *
+     * @param id        persistent identity of the controller, unique while the server is running
+     * @param positions positions of the parts that were unloaded, any of them loading again will revive the controller
+     */
+    public static void parkController(MultiblockController<?, ?, ?> controller, long id, long[] positions) {
+        final long maxControllers = Phosphophyllite.CONFIG.multiblockWarmCache.maxControllers;
+        if (maxControllers <= 0 || positions.length == 0 || !controller.blocks.isEmpty()) {
+            return;
+        }
+        controller.parked();
+        removeController(controller);
+        final var level = parkedControllers.computeIfAbsent(controller.level, k -> new ParkedLevel());
+        level.remove(id);
+        level.byID.put(id, new ParkedController(controller, positions, Phosphophyllite.tickNumber()));
+        for (final long pos : positions) {
+            final long oldID = level.idByPos.put(pos, id);
+            if (oldID != level.idByPos.defaultReturnValue() && oldID != id) {
+                // a position can only be part of one unloaded controller, the older one is stale
+                level.remove(oldID);
+            }
+        }
+        while (level.byID.size() > maxControllers) {
+            level.remove(level.byID.firstLongKey());
+        }
+    }
+    
+    /**
+     * @return the parked controller that had a part at this position, which is removed from the cache and will be ticked again
+     */
+    @Nullable
+    static MultiblockController<?, ?, ?> unparkController(Level level, BlockPos pos) {
+        //noinspection SuspiciousMethodCalls
+        final var parkedLevel = parkedControllers.get(level);
+        if (parkedLevel == null || !parkedLevel.idByPos.containsKey(pos.asLong())) {
+            return null;
+        }
+        final long id = parkedLevel.idByPos.get(pos.asLong());
+        final var parked = parkedLevel.byID.get(id);
+        parkedLevel.remove(id);
+        if (parked == null) {
+            return null;
+        }
+        final var controller = parked.controller;
+        // may still be pending removal from when it was emptied
+        oldControllers.removeIf(oldController -> oldController == controller);
+        //noinspection SuspiciousMethodCalls
+        final var controllers = controllersToTick.get(controller.level);
+        if ((controllers == null || !controllers.contains(controller)) && !newControllers.contains(controller)) {
+            newControllers.add(controller);
+        }
+        return controller;
+    }
+    
+    private static void evictIdleControllers() {
+        if (parkedControllers.isEmpty()) {
+            return;
+        }
+        final long oldestAllowed = Phosphophyllite.tickNumber() - Phosphophyllite.CONFIG.multiblockWarmCache.idleTicks;
+        for (final var parkedLevel : parkedControllers.values()) {
+            while (!parkedLevel.byID.isEmpty() && parkedLevel.byID.get(parkedLevel.byID.firstLongKey()).parkedAt < oldestAllowed) {
+                parkedLevel.remove(parkedLevel.byID.firstLongKey());
+            }
+        }
     }
     
     @OnModLoad
@@ -34,6 +194,8 @@ public final class MultiblockRegistry {
     @SubscribeEvent(priority = EventPriority.LOW)
     static void onWorldUnload(final LevelEvent.Unload worldUnloadEvent) {
         if (!worldUnloadEvent.getLevel().isClientSide()) {
+            //noinspection SuspiciousMethodCalls
+            parkedControllers.remove(worldUnloadEvent.getLevel());
             //noinspection SuspiciousMethodCalls
             ObjectArrayList<MultiblockController<?, ?, ?>> controllersToTick = MultiblockRegistry.controllersToTick.remove(worldUnloadEvent.getLevel());
             if (controllersToTick != null) {
@@ -41,6 +203,8 @@ public final class MultiblockRegistry {
                     multiblockController.suicide();
                 }
             }
+            //noinspection SuspiciousMethodCalls
+            spatialIndices.remove(worldUnloadEvent.getLevel());
             // stragglers will exist
             newControllers.removeIf(multiblockController -> multiblockController.level == worldUnloadEvent.getLevel());
             oldControllers.removeIf(multiblockController -> multiblockController.level == worldUnloadEvent.getLevel());
@@ -50,6 +214,8 @@ public final class MultiblockRegistry {
     @SubscribeEvent
     static void onServerStop(final ServerStoppedEvent serverStoppedEvent) {
         controllersToTick.clear();
+        parkedControllers.clear();
+        spatialIndices.clear();
         newControllers.clear();
         oldControllers.clear();
     }
@@ -66,6 +232,7 @@ public final class MultiblockRegistry {
             controllers.remove(oldController);
         }
         oldControllers.clear();
+        evictIdleControllers();
     }
     
     @SubscribeEvent
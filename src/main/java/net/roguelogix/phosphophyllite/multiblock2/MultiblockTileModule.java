@@ -13,6 +13,7 @@ import net.roguelogix.phosphophyllite.modular.tile.IIsTickingTracker;
 import net.roguelogix.phosphophyllite.multiblock2.modular.ICoreMultiblockTileModule;
 import net.roguelogix.phosphophyllite.registry.OnModLoad;
 import net.roguelogix.phosphophyllite.threading.Queues;
+import net.roguelogix.phosphophyllite.util.IntrusiveFastArraySet;
 import net.roguelogix.phosphophyllite.util.NonnullDefault;
 import net.roguelogix.phosphophyllite.util.Util;
 import org.jetbrains.annotations.Contract;
@@ -27,7 +28,9 @@ public final class MultiblockTileModule<
         TileType extends BlockEntity & IMultiblockTile<TileType, BlockType, ControllerType>,
         BlockType extends Block & IMultiblockBlock,
         ControllerType extends MultiblockController<TileType, BlockType, ControllerType>
-        > extends TileModule<TileType> implements IIsTickingTracker {
+        > extends TileModule<TileType> implements IIsTickingTracker, IntrusiveFastArraySet.Element {
+    
+    private final IntrusiveFastArraySet.Indices fastArraySetIndices = new IntrusiveFastArraySet.Indices();
     
     @Nullable
     private ControllerType controller;
@@ -43,6 +46,11 @@ public final class MultiblockTileModule<
     
     private final ObjectArrayList<ICoreMultiblockTileModule<TileType, BlockType, ControllerType>> coreMultiblockTileModules = new ObjectArrayList<>();
     
+    @Override
+    public IntrusiveFastArraySet.Indices fastArraySetIndices() {
+        return fastArraySetIndices;
+    }
+    
     @OnModLoad
     private static void onModLoad() {
         ModuleRegistry.registerTileModule(IMultiblockTile.class, MultiblockTileModule::new);
@@ -121,6 +129,12 @@ public final class MultiblockTileModule<
         preExistingBlock = true;
     }
     
+    @Override
+    public boolean cacheSaveNBT() {
+        // always empty, only the presence of the tag matters
+        return true;
+    }
+    
     @Override
     public CompoundTag writeNBT() {
         return new CompoundTag();
@@ -211,7 +225,8 @@ public final class MultiblockTileModule<
         if (Objects.requireNonNull(iface.getLevel()).isClientSide) {
             return;
         }
-        Queues.serverThread.enqueueUntracked(this::attachToNeighborsNow);
+        // structural, must run the same tick like it always has, not slip behind the budget
+        Queues.serverThread.enqueueThisTickUntracked(this::attachToNeighborsNow);
     }
     
     public void attachToNeighborsNow() {
@@ -244,6 +259,12 @@ public final class MultiblockTileModule<
                 multiblockModule.controller.attemptAttach(this);
             }
         }
+        if (controller == null) {
+            final var parkedController = MultiblockRegistry.unparkController(level, pos);
+            if (parkedController != null && parkedController.canAttachTile(iface)) {
+                parkedController.attemptAttach(this);
+            }
+        }
         if (controller == null) {
             iface.createController().attemptAttach(this);
         }
@@ -0,0 +1,99 @@
+package net.roguelogix.phosphophyllite.multiblock2;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.roguelogix.phosphophyllite.modular.api.IModularTile;
+import net.roguelogix.phosphophyllite.util.FastArraySet;
+import net.roguelogix.phosphophyllite.util.IntrusiveFastArraySet;
+import net.roguelogix.phosphophyllite.util.ModuleMap;
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+
+import java.util.Arrays;
+
+/**
+ * A controller's parts, bucketed by the part interfaces they implement
+ * <p>
+ * Modules subscribe to a bucket once, and the controller keeps it up to date as parts attach and detach
+ * Which buckets a part goes in is worked out once per tile class, so attaching or detaching a part is constant work no matter how many buckets there are
+ */
+@NonnullDefault
+public final class PartRegistry<TileType extends BlockEntity & IModularTile> {
+    
+    private record Bucket(Class<?> partInterface, Class<?>[] excluding, FastArraySet<Object> parts) {
+        boolean accepts(Class<?> tileClass) {
+            if (!partInterface.isAssignableFrom(tileClass)) {
+                return false;
+            }
+            for (final var excluded : excluding) {
+                if (excluded.isAssignableFrom(tileClass)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+    
+    private static final Bucket[] NO_BUCKETS = new Bucket[0];
+    
+    private final ModuleMap<?, TileType> blocks;
+    private final ObjectArrayList<Bucket> buckets = new ObjectArrayList<>();
+    private final Reference2ObjectOpenHashMap<Class<?>, Bucket[]> bucketsByClass = new Reference2ObjectOpenHashMap<>();
+    
+    PartRegistry(ModuleMap<?, TileType> blocks) {
+        this.blocks = blocks;
+    }
+    
+    /**
+     * Subscribing to the same bucket twice returns the same set, parts already attached are added to a new bucket
+     * The returned set must not be modified
+     *
+     * @param partInterface parts implementing this go in the bucket
+     * @param excluding     unless they also implement one of these
+     */
+    public <T> FastArraySet<T> subscribe(Class<T> partInterface, Class<?>... excluding) {
+        for (final var bucket : buckets) {
+            if (bucket.partInterface == partInterface && Arrays.equals(bucket.excluding, excluding)) {
+                //noinspection unchecked
+                return (FastArraySet<T>) bucket.parts;
+            }
+        }
+        final var bucket = new Bucket(partInterface, excluding.clone(), new IntrusiveFastArraySet<>());
+        buckets.add(bucket);
+        bucketsByClass.clear();
+        blocks.forEachTile(tile -> {
+            if (bucket.accepts(tile.getClass())) {
+                bucket.parts.add(tile);
+            }
+        });
+        //noinspection unchecked
+        return (FastArraySet<T>) bucket.parts;
+    }
+    
+    private Bucket[] bucketsFor(Class<?> tileClass) {
+        var classBuckets = bucketsByClass.get(tileClass);
+        if (classBuckets == null) {
+            final var matching = new ObjectArrayList<Bucket>();
+            for (final var bucket : buckets) {
+                if (bucket.accepts(tileClass)) {
+                    matching.add(bucket);
+                }
+            }
+            classBuckets = matching.isEmpty() ? NO_BUCKETS : matching.toArray(NO_BUCKETS);
+            bucketsByClass.put(tileClass, classBuckets);
+        }
+        return classBuckets;
+    }
+    
+    void add(TileType tile) {
+        for (final var bucket : bucketsFor(tile.getClass())) {
+            bucket.parts.add(tile);
+        }
+    }
+    
+    void remove(TileType tile) {
+        for (final var bucket : bucketsFor(tile.getClass())) {
+            bucket.parts.remove(tile);
+        }
+    }
+}
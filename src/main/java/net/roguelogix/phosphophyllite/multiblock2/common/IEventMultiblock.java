@@ -14,8 +14,6 @@ import net.roguelogix.phosphophyllite.registry.OnModLoad;
 import net.roguelogix.phosphophyllite.util.FastArraySet;
 import net.roguelogix.phosphophyllite.util.NonnullDefault;
 
-import javax.annotation.Nonnull;
-
 @NonnullDefault
 public interface IEventMultiblock<
         TileType extends BlockEntity & IMultiblockTile<TileType, BlockType, ControllerType>,
@@ -24,7 +22,6 @@ public interface IEventMultiblock<
         > extends IModularMultiblockController<TileType, BlockType, ControllerType> {
     
     // TODO: more multiblock events, there are more of them
-    // TODO: find a way to make this generic, or integrated into the modules better
     interface AssemblyStateTransition {
         void onAssemblyStateTransition(IValidatedMultiblock.AssemblyState oldState, IValidatedMultiblock.AssemblyState newState);
         
@@ -46,7 +43,7 @@ public interface IEventMultiblock<
             ControllerType extends MultiblockController<TileType, BlockType, ControllerType> & IEventMultiblock<TileType, BlockType, ControllerType>
             > extends MultiblockControllerModule<TileType, BlockType, ControllerType> implements IValidatedMultiblockControllerModule {
         
-        FastArraySet<AssemblyStateTransition> assemblyStateTransitionTiles = new FastArraySet<>();
+        final FastArraySet<AssemblyStateTransition> assemblyStateTransitionTiles;
         
         @OnModLoad
         public static void register() {
@@ -55,20 +52,7 @@ public interface IEventMultiblock<
         
         public Module(IModularMultiblockController<TileType, BlockType, ControllerType> controller) {
             super(controller);
-        }
-        
-        @Override
-        public void onPartAdded(@Nonnull TileType tile) {
-            if (tile instanceof AssemblyStateTransition iface) {
-                assemblyStateTransitionTiles.add(iface);
-            }
-        }
-        
-        @Override
-        public void onPartRemoved(@Nonnull TileType tile) {
-            if (tile instanceof AssemblyStateTransition iface) {
-                assemblyStateTransitionTiles.remove(iface);
-            }
+            assemblyStateTransitionTiles = this.controller.parts.subscribe(AssemblyStateTransition.class);
         }
     
         @Override
@@ -1,19 +1,40 @@
 package net.roguelogix.phosphophyllite.multiblock2.common;
 
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
 import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.Tag;
+import net.minecraft.world.level.Level;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.event.level.LevelEvent;
+import net.minecraftforge.event.server.ServerStoppedEvent;
 import net.roguelogix.phosphophyllite.multiblock2.MultiblockController;
+import net.roguelogix.phosphophyllite.multiblock2.MultiblockRegistry;
 import net.roguelogix.phosphophyllite.multiblock2.modular.MultiblockControllerModule;
 import net.roguelogix.phosphophyllite.multiblock2.modular.MultiblockControllerModuleRegistry;
 import net.roguelogix.phosphophyllite.multiblock2.rectangular.IRectangularMultiblockBlock;
 import net.roguelogix.phosphophyllite.multiblock2.validated.IValidatedMultiblock;
 import net.roguelogix.phosphophyllite.multiblock2.validated.IValidatedMultiblockControllerModule;
 import net.roguelogix.phosphophyllite.registry.OnModLoad;
+import net.roguelogix.phosphophyllite.serialization.CompactNBT;
+import net.roguelogix.phosphophyllite.threading.Event;
+import net.roguelogix.phosphophyllite.threading.Queues;
+import net.roguelogix.phosphophyllite.util.FastArraySet;
 import net.roguelogix.phosphophyllite.util.NonnullDefault;
 import net.roguelogix.phosphophyllite.util.Util;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
 
 /**
  * TODO: this is currently basically just mimicking the current functionality of the old system
@@ -44,11 +65,105 @@ public interface IPersistentMultiblock<
         module.dirty();
     }
     
+    /**
+     * Stores the output of write and writeShard in the CompactNBT binary format, as a single byte array tag
+     * Large data is also compressed
+     * Data stored as plain NBT is still read, so this can be enabled for existing worlds
+     */
+    default boolean compactPersistence() {
+        return false;
+    }
+    
+    /**
+     * Immutable capture of persistent state, serialized off the server thread
+     */
+    @FunctionalInterface
+    interface PersistenceSnapshot {
+        @Nullable
+        CompoundTag serialize();
+    }
+    
+    /**
+     * Asynchronous persistence
+     * <p>
+     * When enabled, snapshot and snapshotShard are called on the server thread in place of write and writeShard, and the snapshots are serialized (and compacted) on Queues.offThread
+     * When a dirty multiblock is saved, every other dirty multiblock with async persistence in that level has its snapshot taken and queued too, so their serialization overlaps with the rest of the save
+     * A save only waits for the serialization of the data it is storing
+     */
+    default boolean asyncPersistence() {
+        return false;
+    }
+    
+    /**
+     * Called on the server thread, should be cheap, and the returned snapshot must not reference mutable controller state
+     * Defaults to serializing with write immediately
+     */
+    default PersistenceSnapshot snapshot() {
+        final var nbt = write();
+        return () -> nbt;
+    }
+    
+    /**
+     * Sharded equivalent of snapshot, defaults to serializing with writeShard immediately
+     *
+     * @param sectionPos section position, as SectionPos.asLong
+     */
+    default PersistenceSnapshot snapshotShard(long sectionPos) {
+        final var nbt = writeShard(sectionPos);
+        return () -> nbt;
+    }
+    
+    /**
+     * Sharded persistence
+     * <p>
+     * When enabled, write only stores controller wide state, and per-section state is written with writeShard
+     * Each chunk section's shard is stored on a part inside that section, and is only re-written when that section is marked dirty
+     * Chunks save independently, so a shard read back may be newer or older than the controller wide state expects, it's still read and the controller wide state is re-saved to match
+     * Shards belonging to a different multiblock are skipped
+     * Existing non-sharded data is read back as controller wide state
+     */
+    default boolean shardedPersistence() {
+        return false;
+    }
+    
+    /**
+     * @param sectionPos section position, as SectionPos.asLong
+     */
+    @Nullable
+    default CompoundTag writeShard(long sectionPos) {
+        return null;
+    }
+    
+    /**
+     * called after read, for every consistent shard
+     *
+     * @param sectionPos section position, as SectionPos.asLong
+     */
+    default void readShard(long sectionPos, CompoundTag nbt) {
+    }
+    
+    /**
+     * Marks the shard for the section the position is in as dirty, falls back to dirty() when not sharded
+     */
+    default void dirtyShard(BlockPos pos) {
+        persistentModule().dirtyShard(Module.sectionPos(pos));
+    }
+    
+    /**
+     * Marks only the controller wide state as dirty, falls back to dirty() when not sharded
+     */
+    default void dirtyHeader() {
+        persistentModule().dirtyHeader();
+    }
+    
     final class Module<
             TileType extends BlockEntity & IPersistentMultiblockTile<TileType, BlockType, ControllerType>,
             BlockType extends Block & IRectangularMultiblockBlock,
             ControllerType extends MultiblockController<TileType, BlockType, ControllerType> & IPersistentMultiblock<TileType, BlockType, ControllerType>
             > extends MultiblockControllerModule<TileType, BlockType, ControllerType> implements IValidatedMultiblockControllerModule {
+        
+        private static final Logger LOGGER = LogManager.getLogger("Phosphophyllite/PersistentMultiblock");
+        
         @Nullable
         private TileType saveDelegate;
         @Nullable
@@ -56,9 +171,48 @@ public interface IPersistentMultiblock<
         @Nullable
         private CompoundTag nbt;
         
+        private static final int COMPACT_COMPRESSION_THRESHOLD = 512;
+        // namespaced so it doesn't collide with a multiblock's own keys
+        private static final String COMPACT_KEY = "phosphophyllite:compact";
+        
+        // only touched from the server thread
+        private static final Object2ObjectOpenHashMap<Level, FastArraySet<Module<?, ?, ?>>> dirtyAsyncModules = new Object2ObjectOpenHashMap<>();
+        private static long nextID = 0;
+        
+        public final long id = nextID++;
+        // parts that unloaded and haven't come back, any of them loading again can revive this controller from the warm cache
+        private final LongOpenHashSet unloadedParts = new LongOpenHashSet();
+        // revived from the warm cache, in memory state is current, so loaded NBT isn't read
+        private boolean warm = false;
+        
+        private boolean compact = false;
+        private boolean async = false;
+        @Nullable
+        private PendingSerialization pendingData;
+        private final Long2ObjectOpenHashMap<PendingSerialization> pendingShards = new Long2ObjectOpenHashMap<>();
+        private boolean sharded = false;
+        private long shardedID = 0;
+        @Nullable
+        private CompoundTag loadedHeader;
+        private final Long2ObjectOpenHashMap<CompoundTag> loadedShards = new Long2ObjectOpenHashMap<>();
+        private final Long2ObjectOpenHashMap<IPersistentMultiblockTile.Module<TileType, BlockType, ControllerType>> shardDelegates = new Long2ObjectOpenHashMap<>();
+        private final Long2LongOpenHashMap shardVersions = new Long2LongOpenHashMap();
+        private boolean missingShardDelegates = false;
+        
         @OnModLoad
         public static void register() {
             MultiblockControllerModuleRegistry.registerModule(IPersistentMultiblock.class, Module::new);
+            MinecraftForge.EVENT_BUS.addListener(Module::onLevelUnload);
+            MinecraftForge.EVENT_BUS.addListener(Module::onServerStopped);
+        }
+        
+        private static void onLevelUnload(LevelEvent.Unload event) {
+            //noinspection SuspiciousMethodCalls
+            dirtyAsyncModules.remove(event.getLevel());
+        }
+        
+        private static void onServerStopped(ServerStoppedEvent event) {
+            dirtyAsyncModules.clear();
         }
         
         public Module(IPersistentMultiblock<TileType, BlockType, ControllerType> controller) {
@@ -67,9 +221,150 @@ public interface IPersistentMultiblock<
         
         @Override
         public void postModuleConstruction() {
+            compact = controller.compactPersistence();
+            async = controller.asyncPersistence();
+            sharded = controller.shardedPersistence();
             controller.transitionToState(AssemblyState.PAUSED);
         }
         
+        private CompoundTag encodeData(CompoundTag data) {
+            if (!compact) {
+                return data;
+            }
+            var bytes = CompactNBT.encode(data);
+            if (bytes.length > COMPACT_COMPRESSION_THRESHOLD) {
+                bytes = CompactNBT.compress(bytes);
+            }
+            final var tag = new CompoundTag();
+            tag.putByteArray(COMPACT_KEY, bytes);
+            return tag;
+        }
+        
+        private CompoundTag decodeData(CompoundTag data) {
+            // decoded regardless of if compact is enabled, so it can be turned off again
+            // the wrapper is only recognized if it's the only entry and holds a compact header, so a multiblock's own data can't be mistaken for it
+            if (data.size() != 1 || !data.contains(COMPACT_KEY, Tag.TAG_BYTE_ARRAY)) {
+                return data;
+            }
+            final var bytes = data.getByteArray(COMPACT_KEY);
+            if (!CompactNBT.isCompact(bytes)) {
+                return data;
+            }
+            try {
+                return CompactNBT.decode(bytes);
+            } catch (IOException e) {
+                LOGGER.error("Failed to decode compact persistent multiblock data for multiblock at " + controller.min() + " to " + controller.max(), e);
+                return new CompoundTag();
+            }
+        }
+        
+        private final class PendingSerialization {
+            private final Event done;
+            // synchronous write of the same data, used if serializing the snapshot failed
+            private final Supplier<CompoundTag> fallback;
+            @Nullable
+            private volatile CompoundTag result;
+            private volatile boolean failed = false;
+            
+            private PendingSerialization(PersistenceSnapshot snapshot, Supplier<CompoundTag> fallback) {
+                this.fallback = fallback;
+                done = Queues.offThread.enqueue(() -> {
+                    try {
+                        final var data = snapshot.serialize();
+                        result = data == null ? null : encodeData(data);
+                    } catch (RuntimeException e) {
+                        LOGGER.error("Failed to serialize persistent multiblock snapshot for multiblock at " + controller.min() + " to " + controller.max() + ", writing it on the server thread instead", e);
+                        failed = true;
+                    }
+                });
+            }
+            
+            @Nullable
+            private CompoundTag await() {
+                while (!done.ready()) {
+                    done.join();
+                }
+                if (failed) {
+                    // saving without the data would delete it, so this is never skipped
+                    final var data = fallback.get();
+                    return data == null ? null : encodeData(data);
+                }
+                return result;
+            }
+        }
+        
+        private void markAsyncDirty() {
+            if (async) {
+                dirtyAsyncModules.computeIfAbsent(controller.level, k -> new FastArraySet<>()).add(this);
+            }
+        }
+        
+        /**
+         * Takes snapshots of everything that needs to be saved and queues them for serialization
+         */
+        private void startSerialization() {
+            if (controller.blocks.isEmpty()) {
+                // merged into another controller, or dead
+                return;
+            }
+            final boolean dataNeeded = sharded ? saveDelegateModule != null && saveDelegateModule.nbt == null : nbt == null;
+            if (dataNeeded && pendingData == null) {
+                pendingData = new PendingSerialization(controller.snapshot(), controller::write);
+            }
+            if (sharded) {
+                for (final var entry : shardDelegates.long2ObjectEntrySet()) {
+                    if (entry.getValue().nbt == null && !pendingShards.containsKey(entry.getLongKey())) {
+                        final long section = entry.getLongKey();
+                        pendingShards.put(section, new PendingSerialization(controller.snapshotShard(section), () -> controller.writeShard(section)));
+                    }
+                }
+            }
+        }
+        
+        private void startLevelSerialization() {
+            final var modules = dirtyAsyncModules.remove(controller.level);
+            if (modules == null) {
+                return;
+            }
+            final var elements = modules.elements();
+            for (int i = 0; i < elements.size(); i++) {
+                elements.get(i).startSerialization();
+            }
+        }
+        
+        @Nullable
+        private CompoundTag encodedData() {
+            if (!async) {
+                final var data = controller.write();
+                return data == null ? null : encodeData(data);
+            }
+            startLevelSerialization();
+            var pending = pendingData;
+            pendingData = null;
+            if (pending == null) {
+                pending = new PendingSerialization(controller.snapshot(), controller::write);
+            }
+            return pending.await();
+        }
+        
+        @Nullable
+        private CompoundTag encodedShard(long section) {
+            if (!async) {
+                final var data = controller.writeShard(section);
+                return data == null ? null : encodeData(data);
+            }
+            startLevelSerialization();
+            var pending = pendingShards.remove(section);
+            if (pending == null) {
+                pending = new PendingSerialization(controller.snapshotShard(section), () -> controller.writeShard(section));
+            }
+            return pending.await();
+        }
+        
+        static long sectionPos(BlockPos pos) {
+            return SectionPos.asLong(SectionPos.blockToSectionCoord(pos.getX()), SectionPos.blockToSectionCoord(pos.getY()), SectionPos.blockToSectionCoord(pos.getZ()));
+        }
+        
         private void pausedToDisassembled() {
             if (controller.assemblyState() == AssemblyState.PAUSED) {
                 controller.transitionToState(AssemblyState.DISASSEMBLED);
@@ -81,29 +376,82 @@ public interface IPersistentMultiblock<
             assert persistentModule != null;
             final var newNBT = persistentModule.nbt;
             persistentModule.nbt = null;
+            unloadedParts.remove(newPart.getBlockPos().asLong());
             if (newNBT == null) {
                 return;
             }
+            if (sharded) {
+                //noinspection unchecked
+                shardedPartAdded(newPart, persistentModule, newNBT);
+                return;
+            }
             if (saveDelegate == null) {
                 saveDelegate = newPart;
                 //noinspection unchecked
                 saveDelegateModule = persistentModule;
             }
+            if (warm) {
+                return;
+            }
             if (nbt != null) {
                 if (nbt.equals(newNBT)) {
                     return;
                 }
-                nbt = controller.mergeNBTs(nbt, newNBT);
+                nbt = encodeData(controller.mergeNBTs(decodeData(nbt), decodeData(newNBT)));
             } else {
                 nbt = newNBT;
             }
         }
         
+        private void shardedPartAdded(TileType newPart, IPersistentMultiblockTile.Module<TileType, BlockType, ControllerType> persistentModule, CompoundTag newNBT) {
+            if (!newNBT.getBoolean("sharded")) {
+                // pre-sharding layout, everything is controller wide state
+                final var header = new CompoundTag();
+                header.put("data", newNBT);
+                final var wrapped = new CompoundTag();
+                wrapped.putBoolean("sharded", true);
+                wrapped.put("header", header);
+                newNBT = wrapped;
+            }
+            if (newNBT.contains("header")) {
+                final var header = newNBT.getCompound("header");
+                if (warm) {
+                    if (saveDelegate == null) {
+                        saveDelegate = newPart;
+                        saveDelegateModule = persistentModule;
+                    }
+                } else if (loadedHeader == null) {
+                    loadedHeader = header;
+                    saveDelegate = newPart;
+                    saveDelegateModule = persistentModule;
+                } else if (loadedHeader.getLong("id") != header.getLong("id") && loadedHeader.contains("data") && header.contains("data")) {
+                    // two different multiblocks, only the first one's shards will be used
+                    loadedHeader.put("data", encodeData(controller.mergeNBTs(decodeData(loadedHeader.getCompound("data")), decodeData(header.getCompound("data")))));
+                }
+            }
+            if (newNBT.contains("shard")) {
+                final var shard = newNBT.getCompound("shard");
+                final long section = shard.getLong("section");
+                if (!warm) {
+                    loadedShards.putIfAbsent(section, shard);
+                }
+                shardDelegates.putIfAbsent(section, persistentModule);
+            }
+        }
+        
         private void partRemoved(TileType oldPart) {
             if (oldPart == saveDelegate) {
                 saveDelegate = null;
                 saveDelegateModule = null;
             }
+            if (sharded) {
+                final long section = sectionPos(oldPart.getBlockPos());
+                final var delegate = shardDelegates.get(section);
+                if (delegate != null && delegate.iface == oldPart) {
+                    shardDelegates.remove(section);
+                    missingShardDelegates = true;
+                }
+            }
         }
         
         public void onPartLoaded(TileType tile) {
@@ -112,9 +460,15 @@ public interface IPersistentMultiblock<
         
         public void onPartUnloaded(TileType tile) {
             partRemoved(tile);
+            unloadedParts.add(tile.getBlockPos().asLong());
             if (controller.assemblyState() != AssemblyState.PAUSED) {
                 controller.transitionToState(AssemblyState.PAUSED);
             }
+            if (controller.blocks.isEmpty()) {
+                // fully unloaded, state won't change until it's revived
+                warm = true;
+                MultiblockRegistry.parkController(controller, id, unloadedParts.toLongArray());
+            }
         }
         
         public void onPartAttached(TileType tile) {
@@ -135,11 +489,24 @@ public interface IPersistentMultiblock<
             partRemoved(tile);
         }
         
+        @Override
+        public void merge(ControllerType other) {
+            unloadedParts.addAll(other.persistentModule().unloadedParts);
+        }
+        
         @Override
         public void onStateTransition(AssemblyState oldAssemblyState, AssemblyState newAssemblyState) {
+            final boolean revived = warm && newAssemblyState != AssemblyState.PAUSED;
+            if (newAssemblyState != AssemblyState.PAUSED) {
+                warm = false;
+            }
             if (newAssemblyState != AssemblyState.ASSEMBLED) {
                 return;
             }
+            if (sharded) {
+                shardedAssembled(oldAssemblyState);
+                return;
+            }
             if (saveDelegate == null) {
                 saveDelegate = controller.randomTile();
                 //noinspection unchecked
@@ -150,19 +517,147 @@ public interface IPersistentMultiblock<
                 return;
             }
             assert saveDelegateModule != null;
-            if (oldAssemblyState != AssemblyState.ASSEMBLED && nbt != null) {
-                controller.read(nbt);
+            if (oldAssemblyState != AssemblyState.ASSEMBLED && nbt != null && !revived) {
+                controller.read(decodeData(nbt));
+            }
+        }
+        
+        private void shardedAssembled(AssemblyState oldAssemblyState) {
+            if (saveDelegate == null) {
+                saveDelegate = controller.randomTile();
+                //noinspection unchecked
+                saveDelegateModule = saveDelegate.module(IPersistentMultiblockTile.class, IPersistentMultiblockTile.Module.class);
+                if (saveDelegateModule != null) {
+                    saveDelegateModule.nbt = null;
+                }
+            } else if (oldAssemblyState != AssemblyState.ASSEMBLED && loadedHeader != null) {
+                readShards(loadedHeader);
+            }
+            loadedHeader = null;
+            loadedShards.clear();
+            while (shardedID == 0) {
+                shardedID = ThreadLocalRandom.current().nextLong();
+            }
+            assignShardDelegates();
+        }
+        
+        private void readShards(CompoundTag header) {
+            shardedID = header.getLong("id");
+            final var sections = header.getLongArray("sections");
+            final var versions = header.getLongArray("versions");
+            if (header.contains("data")) {
+                controller.read(decodeData(header.getCompound("data")));
+            }
+            final var headerVersions = new Long2LongOpenHashMap();
+            headerVersions.defaultReturnValue(-1);
+            for (int i = 0; i < sections.length; i++) {
+                headerVersions.put(sections[i], i < versions.length ? versions[i] : -1);
+            }
+            boolean headerOutOfStep = false;
+            for (final var entry : loadedShards.long2ObjectEntrySet()) {
+                final long section = entry.getLongKey();
+                final var shard = entry.getValue();
+                if (shard.getLong("id") != shardedID) {
+                    continue;
+                }
+                // the shard's chunk saved without the header's (or the other way around), it's still the last data stored for that section
+                final long version = shard.getLong("version");
+                if (headerVersions.remove(section) != version) {
+                    headerOutOfStep = true;
+                }
+                shardVersions.put(section, version);
+                controller.readShard(section, decodeData(shard.getCompound("data")));
+            }
+            if (headerOutOfStep) {
+                dirtyHeader();
+            }
+            if (!headerVersions.isEmpty()) {
+                LOGGER.warn(headerVersions.size() + " of " + sections.length + " persistent multiblock shards missing for multiblock at " + controller.min() + " to " + controller.max() + ", those sections were not read");
+            }
+        }
+        
+        private void assignShardDelegates() {
+            missingShardDelegates = false;
+            final int size = controller.blocks.size();
+            final TileType[] tileElements = controller.blocks.tileElements();
+            boolean newDelegate = false;
+            for (int i = 0; i < size; i++) {
+                final var tile = tileElements[i];
+                final long section = sectionPos(tile.getBlockPos());
+                if (shardDelegates.containsKey(section)) {
+                    continue;
+                }
+                //noinspection unchecked
+                final IPersistentMultiblockTile.Module<TileType, BlockType, ControllerType> module = tile.module(IPersistentMultiblockTile.class, IPersistentMultiblockTile.Module.class);
+                if (module == null) {
+                    continue;
+                }
+                shardDelegates.put(section, module);
+                module.nbt = null;
+                controller.level.blockEntityChanged(tile.getBlockPos());
+                newDelegate = true;
+            }
+            if (newDelegate) {
+                dirtyHeader();
+            }
+        }
+        
+        @Override
+        public void update() {
+            if (missingShardDelegates && controller.assemblyState() == AssemblyState.ASSEMBLED) {
+                assignShardDelegates();
             }
         }
         
         void dirty() {
+            if (sharded) {
+                // everything changed, but only the delegates store any of it
+                for (final var iter = shardDelegates.keySet().iterator(); iter.hasNext(); ) {
+                    dirtyShard(iter.nextLong());
+                }
+                dirtyHeader();
+                return;
+            }
             nbt = null;
+            // anything in flight is now out of date
+            pendingData = null;
+            pendingShards.clear();
+            markAsyncDirty();
             if (saveDelegateModule != null) {
                 saveDelegateModule.nbt = null;
             }
             Util.markRangeDirty(controller.level, controller.min(), controller.max());
         }
         
+        void dirtyShard(long section) {
+            if (!sharded) {
+                dirty();
+                return;
+            }
+            shardVersions.addTo(section, 1);
+            pendingShards.remove(section);
+            final var delegate = shardDelegates.get(section);
+            if (delegate != null) {
+                delegate.nbt = null;
+                controller.level.blockEntityChanged(delegate.iface.getBlockPos());
+            }
+            // the header holds every shard's version
+            dirtyHeader();
+        }
+        
+        void dirtyHeader() {
+            if (!sharded) {
+                dirty();
+                return;
+            }
+            pendingData = null;
+            markAsyncDirty();
+            if (saveDelegateModule != null) {
+                saveDelegateModule.nbt = null;
+                controller.level.blockEntityChanged(saveDelegateModule.iface.getBlockPos());
+            }
+        }
+        
         boolean isSaveDelegate(TileType tile) {
             return tile == saveDelegate;
         }
@@ -170,9 +665,63 @@ public interface IPersistentMultiblock<
         @Nullable
         CompoundTag getNBT() {
             if (nbt == null) {
-                nbt = controller.write();
+                nbt = encodedData();
             }
             return nbt;
         }
+        
+        /**
+         * @return the persistent data to be stored on this specific part, if any
+         */
+        @Nullable
+        CompoundTag tileNBT(IPersistentMultiblockTile.Module<TileType, BlockType, ControllerType> tileModule) {
+            if (!sharded) {
+                return isSaveDelegate(tileModule.iface) ? getNBT() : null;
+            }
+            CompoundTag tag = null;
+            if (tileModule == saveDelegateModule) {
+                tag = new CompoundTag();
+                tag.putBoolean("sharded", true);
+                tag.put("header", writeHeader());
+            }
+            final long section = sectionPos(tileModule.iface.getBlockPos());
+            if (shardDelegates.get(section) == tileModule) {
+                if (tag == null) {
+                    tag = new CompoundTag();
+                    tag.putBoolean("sharded", true);
+                }
+                tag.put("shard", writeShard(section));
+            }
+            return tag;
+        }
+        
+        private CompoundTag writeHeader() {
+            final var header = new CompoundTag();
+            header.putLong("id", shardedID);
+            final var data = encodedData();
+            if (data != null) {
+                header.put("data", data);
+            }
+            final var sections = shardDelegates.keySet().toLongArray();
+            final var versions = new long[sections.length];
+            for (int i = 0; i < sections.length; i++) {
+                versions[i] = shardVersions.get(sections[i]);
+            }
+            header.putLongArray("sections", sections);
+            header.putLongArray("versions", versions);
+            return header;
+        }
+        
+        private CompoundTag writeShard(long section) {
+            final var shard = new CompoundTag();
+            shard.putLong("id", shardedID);
+            shard.putLong("section", section);
+            shard.putLong("version", shardVersions.get(section));
+            final var data = encodedShard(section);
+            if (data != null) {
+                shard.put("data", data);
+            }
+            return shard;
+        }
     }
 }
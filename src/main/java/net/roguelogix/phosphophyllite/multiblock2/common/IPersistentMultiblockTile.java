@@ -65,11 +65,11 @@ public interface IPersistentMultiblockTile<
         @Nullable
         @Override
         public CompoundTag writeNBT() {
-            if (controllerPersistentModule == null || !controllerPersistentModule.isSaveDelegate(iface)) {
+            if (controllerPersistentModule == null) {
                 return nbt;
             }
             if (nbt == null) {
-                nbt = controllerPersistentModule.getNBT();
+                nbt = controllerPersistentModule.tileNBT(this);
             }
             return nbt;
         }
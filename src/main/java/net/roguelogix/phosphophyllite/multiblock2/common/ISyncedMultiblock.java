@@ -0,0 +1,247 @@
+package net.roguelogix.phosphophyllite.multiblock2.common;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.event.level.ChunkWatchEvent;
+import net.minecraftforge.event.server.ServerStoppedEvent;
+import net.roguelogix.phosphophyllite.multiblock2.IMultiblockBlock;
+import net.roguelogix.phosphophyllite.multiblock2.MultiblockController;
+import net.roguelogix.phosphophyllite.multiblock2.modular.IModularMultiblockController;
+import net.roguelogix.phosphophyllite.multiblock2.modular.MultiblockControllerModule;
+import net.roguelogix.phosphophyllite.multiblock2.modular.MultiblockControllerModuleRegistry;
+import net.roguelogix.phosphophyllite.registry.OnModLoad;
+import net.roguelogix.phosphophyllite.util.FastArraySet;
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * Controller scoped client sync
+ * <p>
+ * The controller publishes a single state payload to every player tracking any chunk it has parts in
+ * Parts (see ISyncedMultiblockTile) read that shared state client side instead of syncing their own copy
+ */
+@NonnullDefault
+public interface ISyncedMultiblock<
+        TileType extends BlockEntity & ISyncedMultiblockTile<TileType, BlockType, ControllerType>,
+        BlockType extends Block & IMultiblockBlock,
+        ControllerType extends MultiblockController<TileType, BlockType, ControllerType> & ISyncedMultiblock<TileType, BlockType, ControllerType>
+        > extends IModularMultiblockController<TileType, BlockType, ControllerType> {
+    
+    /**
+     * Server side, called at most once per tick, and only after markSyncDirty has been called
+     *
+     * @return state to send to clients, null to send nothing
+     */
+    @Nullable
+    CompoundTag getSyncNBT();
+    
+    default Module<TileType, BlockType, ControllerType> syncModule() {
+        //noinspection unchecked,ConstantConditions
+        return module(ISyncedMultiblock.class, Module.class);
+    }
+    
+    default void markSyncDirty() {
+        syncModule().markSyncDirty();
+    }
+    
+    final class Module<
+            TileType extends BlockEntity & ISyncedMultiblockTile<TileType, BlockType, ControllerType>,
+            BlockType extends Block & IMultiblockBlock,
+            ControllerType extends MultiblockController<TileType, BlockType, ControllerType> & ISyncedMultiblock<TileType, BlockType, ControllerType>
+            > extends MultiblockControllerModule<TileType, BlockType, ControllerType> {
+        
+        // only touched from the server thread
+        private static long nextID = 0;
+        private static final Object2ObjectOpenHashMap<ServerLevel, Long2ObjectOpenHashMap<FastArraySet<Module<?, ?, ?>>>> chunkModules = new Object2ObjectOpenHashMap<>();
+        
+        public final long id = nextID++;
+        
+        // chunk -> part count
+        private final Long2IntOpenHashMap chunks = new Long2IntOpenHashMap();
+        private boolean stateDirty = true;
+        // part position changes since the last update, a position removed and re-added cancels out
+        private final LongOpenHashSet addedPositions = new LongOpenHashSet();
+        private final LongOpenHashSet removedPositions = new LongOpenHashSet();
+        // players that have been sent the full position list, and get deltas from then on
+        private final ObjectOpenHashSet<ServerPlayer> syncedPlayers = new ObjectOpenHashSet<>();
+        private final ObjectLinkedOpenHashSet<ServerPlayer> pendingFullSync = new ObjectLinkedOpenHashSet<>();
+        @Nullable
+        private CompoundTag lastNBT;
+        
+        @OnModLoad
+        public static void register() {
+            MultiblockControllerModuleRegistry.registerModule(ISyncedMultiblock.class, Module::new);
+            MinecraftForge.EVENT_BUS.addListener(Module::onChunkWatch);
+            MinecraftForge.EVENT_BUS.addListener(Module::onServerStopped);
+        }
+        
+        public Module(IModularMultiblockController<TileType, BlockType, ControllerType> controller) {
+            super(controller);
+        }
+        
+        private static void onChunkWatch(ChunkWatchEvent.Watch event) {
+            final var levelModules = chunkModules.get(event.getLevel());
+            if (levelModules == null) {
+                return;
+            }
+            final var modules = levelModules.get(event.getPos().toLong());
+            if (modules == null) {
+                return;
+            }
+            for (final var module : modules.elements()) {
+                // deferred to the controller tick, a player moving into range usually starts watching many chunks at once
+                module.pendingFullSync.add(event.getPlayer());
+            }
+        }
+        
+        private static void onServerStopped(ServerStoppedEvent event) {
+            chunkModules.clear();
+        }
+        
+        void markSyncDirty() {
+            stateDirty = true;
+        }
+        
+        @Override
+        public void onPartAdded(@Nonnull TileType tile) {
+            final long pos = tile.getBlockPos().asLong();
+            if (!removedPositions.remove(pos)) {
+                addedPositions.add(pos);
+            }
+            final long chunk = ChunkPos.asLong(tile.getBlockPos());
+            if (chunks.addTo(chunk, 1) == 0 && controller.level instanceof ServerLevel serverLevel) {
+                chunkModules.computeIfAbsent(serverLevel, k -> new Long2ObjectOpenHashMap<>()).computeIfAbsent(chunk, k -> new FastArraySet<>()).add(this);
+            }
+        }
+        
+        @Override
+        public void onPartRemoved(@Nonnull TileType tile) {
+            final long pos = tile.getBlockPos().asLong();
+            if (!addedPositions.remove(pos)) {
+                removedPositions.add(pos);
+            }
+            final long chunk = ChunkPos.asLong(tile.getBlockPos());
+            if (chunks.addTo(chunk, -1) == 1) {
+                chunks.remove(chunk);
+                removeFromChunk(chunk);
+            }
+        }
+        
+        private void removeFromChunk(long chunk) {
+            //noinspection SuspiciousMethodCalls
+            final var levelModules = chunkModules.get(controller.level);
+            if (levelModules == null) {
+                return;
+            }
+            final var modules = levelModules.get(chunk);
+            if (modules == null) {
+                return;
+            }
+            modules.remove(this);
+            if (modules.size() == 0) {
+                levelModules.remove(chunk);
+            }
+        }
+        
+        @Override
+        public void merge(ControllerType other) {
+            // the other controller is about to be emptied into this one, clients will get the new parts next tick
+            final var otherModule = other.syncModule();
+            final var players = otherModule.trackingPlayers();
+            if (!players.isEmpty()) {
+                MultiblockSync.send(new MultiblockSync.SyncPacket(otherModule.id, null, null, true), players);
+            }
+            stateDirty = true;
+        }
+        
+        @Override
+        public void split(List<ControllerType> others) {
+            stateDirty = true;
+            for (final var other : others) {
+                other.markSyncDirty();
+            }
+        }
+        
+        private ObjectLinkedOpenHashSet<ServerPlayer> trackingPlayers() {
+            final var players = new ObjectLinkedOpenHashSet<ServerPlayer>();
+            if (!(controller.level instanceof ServerLevel serverLevel)) {
+                return players;
+            }
+            final var chunkMap = serverLevel.getChunkSource().chunkMap;
+            for (final var iter = chunks.keySet().iterator(); iter.hasNext(); ) {
+                players.addAll(chunkMap.getPlayers(new ChunkPos(iter.nextLong()), false));
+            }
+            return players;
+        }
+        
+        private long[] positions() {
+            final var positions = new long[controller.blocks.size()];
+            System.arraycopy(controller.blocks.posElements(), 0, positions, 0, positions.length);
+            return positions;
+        }
+        
+        @Override
+        public void update() {
+            final boolean partsDirty = !addedPositions.isEmpty() || !removedPositions.isEmpty();
+            if (stateDirty || partsDirty) {
+                final var players = trackingPlayers();
+                if (stateDirty) {
+                    lastNBT = controller.getSyncNBT();
+                }
+                // players that stopped tracking need the full list again if they come back, ones that haven't had it yet get it below
+                syncedPlayers.retainAll(players);
+                for (final var player : players) {
+                    if (!syncedPlayers.contains(player)) {
+                        pendingFullSync.add(player);
+                    }
+                }
+                players.removeAll(pendingFullSync);
+                final var nbt = stateDirty ? lastNBT : null;
+                if (!players.isEmpty() && (partsDirty || nbt != null)) {
+                    final MultiblockSync.SyncPacket packet;
+                    if (!partsDirty) {
+                        packet = new MultiblockSync.SyncPacket(id, null, nbt, false);
+                    } else if (addedPositions.size() + removedPositions.size() >= controller.blocks.size()) {
+                        // delta isn't any smaller than the full list
+                        packet = new MultiblockSync.SyncPacket(id, positions(), nbt, false);
+                    } else {
+                        packet = new MultiblockSync.SyncPacket(id, null, addedPositions.toLongArray(), removedPositions.toLongArray(), nbt, false);
+                    }
+                    MultiblockSync.send(packet, players);
+                }
+                stateDirty = false;
+                addedPositions.clear();
+                removedPositions.clear();
+            }
+            if (!pendingFullSync.isEmpty()) {
+                if (lastNBT == null) {
+                    lastNBT = controller.getSyncNBT();
+                }
+                MultiblockSync.send(new MultiblockSync.SyncPacket(id, positions(), lastNBT, false), pendingFullSync);
+                syncedPlayers.addAll(pendingFullSync);
+                pendingFullSync.clear();
+            }
+        }
+        
+        @Nullable
+        @Override
+        public String getDebugString() {
+            return "SyncID: " + id + "\n" +
+                    "Chunks: " + chunks.size() + "\n";
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package net.roguelogix.phosphophyllite.multiblock2.common;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.roguelogix.phosphophyllite.modular.api.IModularTile;
+import net.roguelogix.phosphophyllite.modular.api.ModuleRegistry;
+import net.roguelogix.phosphophyllite.modular.api.TileModule;
+import net.roguelogix.phosphophyllite.multiblock2.IMultiblockBlock;
+import net.roguelogix.phosphophyllite.multiblock2.IMultiblockTile;
+import net.roguelogix.phosphophyllite.multiblock2.MultiblockController;
+import net.roguelogix.phosphophyllite.registry.OnModLoad;
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+
+import javax.annotation.Nullable;
+
+@NonnullDefault
+public interface ISyncedMultiblockTile<
+        TileType extends BlockEntity & ISyncedMultiblockTile<TileType, BlockType, ControllerType>,
+        BlockType extends Block & IMultiblockBlock,
+        ControllerType extends MultiblockController<TileType, BlockType, ControllerType> & ISyncedMultiblock<TileType, BlockType, ControllerType>
+        > extends IMultiblockTile<TileType, BlockType, ControllerType> {
+    
+    /**
+     * Client side only
+     *
+     * @return the shared controller state, null if none has been received yet
+     */
+    @Nullable
+    default MultiblockSync.ClientState syncedControllerState() {
+        return MultiblockSync.clientState(as(BlockEntity.class).getBlockPos());
+    }
+    
+    /**
+     * Client side only
+     *
+     * @return the latest controller NBT, as returned by ISyncedMultiblock.getSyncNBT on the server
+     */
+    @Nullable
+    default CompoundTag syncedControllerNBT() {
+        final var state = syncedControllerState();
+        if (state == null) {
+            return null;
+        }
+        return state.nbt();
+    }
+    
+    final class Module extends TileModule<ISyncedMultiblockTile<?, ?, ?>> {
+        
+        @OnModLoad
+        public static void register() {
+            ModuleRegistry.registerTileModule(ISyncedMultiblockTile.class, Module::new);
+        }
+        
+        public Module(IModularTile iface) {
+            super(iface);
+        }
+        
+        @Override
+        public void onRemoved(boolean chunkUnload) {
+            final var tile = iface.as(BlockEntity.class);
+            if (tile.getLevel() != null && tile.getLevel().isClientSide()) {
+                MultiblockSync.clientPartRemoved(tile.getBlockPos());
+            }
+        }
+    }
+}
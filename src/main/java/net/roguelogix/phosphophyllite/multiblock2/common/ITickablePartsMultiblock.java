@@ -12,11 +12,10 @@ import net.roguelogix.phosphophyllite.multiblock2.validated.IValidatedMultiblock
 import net.roguelogix.phosphophyllite.multiblock2.validated.IValidatedMultiblockBlock;
 import net.roguelogix.phosphophyllite.multiblock2.validated.IValidatedMultiblockTile;
 import net.roguelogix.phosphophyllite.registry.OnModLoad;
+import net.roguelogix.phosphophyllite.threading.ParallelRange;
 import net.roguelogix.phosphophyllite.util.FastArraySet;
 import net.roguelogix.phosphophyllite.util.NonnullDefault;
 
-import javax.annotation.Nonnull;
-
 @NonnullDefault
 public interface ITickablePartsMultiblock<
         TileType extends BlockEntity & IMultiblockTile<TileType, BlockType, ControllerType> & IValidatedMultiblockTile<TileType, BlockType, ControllerType>,
@@ -34,13 +33,47 @@ public interface ITickablePartsMultiblock<
         void postTick();
     }
     
+    /**
+     * Tickable whose parallel ticks only touch the part's own state, so they can be run on Queues.offThread concurrently with other parts
+     * The apply methods are then called on the server thread, in part order, to publish anything that affects the rest of the world or the controller
+     * Parallel parts are ticked after all non-parallel parts, small multiblocks are ticked serially
+     */
+    interface ParallelTickable extends Tickable {
+        void parallelPreTick();
+        
+        default void applyPreTick() {
+        }
+        
+        void parallelPostTick();
+        
+        default void applyPostTick() {
+        }
+        
+        @Override
+        default void preTick() {
+            parallelPreTick();
+            applyPreTick();
+        }
+        
+        @Override
+        default void postTick() {
+            parallelPostTick();
+            applyPostTick();
+        }
+    }
+    
     final class Module<
             TileType extends BlockEntity & IMultiblockTile<TileType, BlockType, ControllerType> & IValidatedMultiblockTile<TileType, BlockType, ControllerType>,
             BlockType extends Block & IValidatedMultiblockBlock,
             ControllerType extends MultiblockController<TileType, BlockType, ControllerType> & ITickablePartsMultiblock<TileType, BlockType, ControllerType> & IValidatedMultiblock<TileType, BlockType, ControllerType>
             > extends MultiblockControllerModule<TileType, BlockType, ControllerType> implements IAssembledTickMultiblockModule {
         
-        private final FastArraySet<Tickable> tickables = new FastArraySet<>();
+        // below this, dispatching to other threads costs more than it saves
+        private static final int PARALLEL_THRESHOLD = 128;
+        private static final int MIN_CHUNK_SIZE = 32;
+        
+        private final FastArraySet<Tickable> tickables;
+        private final FastArraySet<ParallelTickable> parallelTickables;
         
         @OnModLoad
         public static void register() {
@@ -49,30 +82,40 @@ public interface ITickablePartsMultiblock<
         
         public Module(IModularMultiblockController<TileType, BlockType, ControllerType> controller) {
             super(controller);
-        }
-        
-        @Override
-        public void onPartAdded(@Nonnull TileType tile) {
-            if (tile instanceof Tickable tickable) {
-                tickables.add(tickable);
-            }
-        }
-        
-        @Override
-        public void onPartRemoved(@Nonnull TileType tile) {
-            if (tile instanceof Tickable tickable) {
-                tickables.remove(tickable);
-            }
+            tickables = this.controller.parts.subscribe(Tickable.class, ParallelTickable.class);
+            parallelTickables = this.controller.parts.subscribe(ParallelTickable.class);
         }
         
         @Override
         public void preTick() {
             tickables.elements().forEach(Tickable::preTick);
+            final var elements = parallelTickables.elements();
+            if (elements.size() < PARALLEL_THRESHOLD) {
+                elements.forEach(ParallelTickable::preTick);
+                return;
+            }
+            ParallelRange.forEach(elements.size(), MIN_CHUNK_SIZE, (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    elements.get(i).parallelPreTick();
+                }
+            });
+            elements.forEach(ParallelTickable::applyPreTick);
         }
         
         @Override
         public void postTick() {
             tickables.elements().forEach(Tickable::postTick);
+            final var elements = parallelTickables.elements();
+            if (elements.size() < PARALLEL_THRESHOLD) {
+                elements.forEach(ParallelTickable::postTick);
+                return;
+            }
+            ParallelRange.forEach(elements.size(), MIN_CHUNK_SIZE, (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    elements.get(i).parallelPostTick();
+                }
+            });
+            elements.forEach(ParallelTickable::applyPostTick);
         }
     }
 }
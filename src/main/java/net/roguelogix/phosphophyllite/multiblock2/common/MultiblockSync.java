@@ -0,0 +1,259 @@
+package net.roguelogix.phosphophyllite.multiblock2.common;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.event.level.LevelEvent;
+import net.minecraftforge.network.NetworkDirection;
+import net.minecraftforge.network.NetworkEvent;
+import net.minecraftforge.network.NetworkRegistry;
+import net.minecraftforge.network.simple.SimpleChannel;
+import net.roguelogix.phosphophyllite.registry.OnModLoad;
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.function.Supplier;
+
+import static net.roguelogix.phosphophyllite.Phosphophyllite.modid;
+
+/**
+ * Controller scoped server -> client sync
+ * <p>
+ * Instead of every part tile sending its own copy of the controller's state, the controller sends a single packet to every player tracking any of its chunks
+ * Client side, the state is stored once per controller and looked up by part position
+ * A player is sent the controller's full position list when they start tracking it, and only added and removed positions after that
+ */
+@NonnullDefault
+public class MultiblockSync {
+    
+    private static final String PROTOCOL_VERSION = "0";
+    public static final SimpleChannel NETWORK_CHANNEL = NetworkRegistry.newSimpleChannel(
+            new ResourceLocation(modid, "multiblock/controllersync"),
+            () -> PROTOCOL_VERSION,
+            PROTOCOL_VERSION::equals,
+            PROTOCOL_VERSION::equals
+    );
+    
+    static final class SyncPacket {
+        private static final byte FLAG_POSITIONS = 1;
+        private static final byte FLAG_NBT = 2;
+        private static final byte FLAG_REMOVE = 4;
+        private static final byte FLAG_DELTA = 8;
+        
+        final long id;
+        // full position list, replaces the client's
+        @Nullable
+        final long[] positions;
+        // only sent to players that already have the full list
+        @Nullable
+        final long[] addedPositions;
+        @Nullable
+        final long[] removedPositions;
+        @Nullable
+        final CompoundTag nbt;
+        final boolean remove;
+        
+        SyncPacket(long id, @Nullable long[] positions, @Nullable CompoundTag nbt, boolean remove) {
+            this(id, positions, null, null, nbt, remove);
+        }
+        
+        SyncPacket(long id, @Nullable long[] positions, @Nullable long[] addedPositions, @Nullable long[] removedPositions, @Nullable CompoundTag nbt, boolean remove) {
+            if ((addedPositions == null) != (removedPositions == null)) {
+                throw new IllegalArgumentException("Added and removed positions must be sent together");
+            }
+            this.id = id;
+            this.positions = positions;
+            this.addedPositions = addedPositions;
+            this.removedPositions = removedPositions;
+            this.nbt = nbt;
+            this.remove = remove;
+        }
+        
+        void encode(FriendlyByteBuf buf) {
+            byte flags = 0;
+            if (positions != null) {
+                flags |= FLAG_POSITIONS;
+            }
+            if (nbt != null) {
+                flags |= FLAG_NBT;
+            }
+            if (remove) {
+                flags |= FLAG_REMOVE;
+            }
+            if (addedPositions != null) {
+                flags |= FLAG_DELTA;
+            }
+            buf.writeByte(flags);
+            buf.writeLong(id);
+            if (positions != null) {
+                buf.writeLongArray(positions);
+            }
+            if (addedPositions != null && removedPositions != null) {
+                buf.writeLongArray(addedPositions);
+                buf.writeLongArray(removedPositions);
+            }
+            if (nbt != null) {
+                buf.writeNbt(nbt);
+            }
+        }
+        
+        static SyncPacket decode(FriendlyByteBuf buf) {
+            final byte flags = buf.readByte();
+            final long id = buf.readLong();
+            long[] positions = null;
+            long[] addedPositions = null;
+            long[] removedPositions = null;
+            CompoundTag nbt = null;
+            if ((flags & FLAG_POSITIONS) != 0) {
+                positions = buf.readLongArray();
+            }
+            if ((flags & FLAG_DELTA) != 0) {
+                addedPositions = buf.readLongArray();
+                removedPositions = buf.readLongArray();
+            }
+            if ((flags & FLAG_NBT) != 0) {
+                nbt = buf.readNbt();
+            }
+            return new SyncPacket(id, positions, addedPositions, removedPositions, nbt, (flags & FLAG_REMOVE) != 0);
+        }
+    }
+    
+    /**
+     * Client side copy of a controller's synced state, shared by every part of that controller
+     */
+    public static final class ClientState {
+        public final long id;
+        private final LongOpenHashSet positions = new LongOpenHashSet();
+        @Nullable
+        private CompoundTag nbt;
+        private int version = 0;
+        
+        private ClientState(long id) {
+            this.id = id;
+        }
+        
+        @Nullable
+        public CompoundTag nbt() {
+            return nbt;
+        }
+        
+        /**
+         * incremented every time new state is received, parts can use this to cheaply detect changes
+         */
+        public int version() {
+            return version;
+        }
+    }
+    
+    private static final Long2ObjectOpenHashMap<ClientState> clientStates = new Long2ObjectOpenHashMap<>();
+    private static final Long2ObjectOpenHashMap<ClientState> clientStatesByPos = new Long2ObjectOpenHashMap<>();
+    
+    @OnModLoad
+    private static void onModLoad() {
+        NETWORK_CHANNEL.registerMessage(1, SyncPacket.class, SyncPacket::encode, SyncPacket::decode, MultiblockSync::handler);
+        MinecraftForge.EVENT_BUS.addListener(MultiblockSync::onLevelUnload);
+    }
+    
+    static void send(SyncPacket packet, Collection<ServerPlayer> players) {
+        for (final var player : players) {
+            NETWORK_CHANNEL.sendTo(packet, player.connection.connection, NetworkDirection.PLAY_TO_CLIENT);
+        }
+    }
+    
+    private static void handler(SyncPacket packet, Supplier<NetworkEvent.Context> ctx) {
+        ctx.get().enqueueWork(() -> {
+            if (ctx.get().getDirection() != NetworkDirection.PLAY_TO_CLIENT) {
+                return;
+            }
+            handleClient(packet);
+        });
+        ctx.get().setPacketHandled(true);
+    }
+    
+    private static synchronized void handleClient(SyncPacket packet) {
+        if (packet.remove) {
+            final var state = clientStates.remove(packet.id);
+            if (state != null) {
+                for (final var iter = state.positions.iterator(); iter.hasNext(); ) {
+                    clientStatesByPos.remove(iter.nextLong(), state);
+                }
+            }
+            return;
+        }
+        final var state = clientStates.computeIfAbsent(packet.id, ClientState::new);
+        if (packet.positions != null) {
+            for (final var iter = state.positions.iterator(); iter.hasNext(); ) {
+                clientStatesByPos.remove(iter.nextLong(), state);
+            }
+            state.positions.clear();
+            for (final long pos : packet.positions) {
+                addClientPosition(state, pos);
+            }
+        }
+        if (packet.removedPositions != null) {
+            for (final long pos : packet.removedPositions) {
+                state.positions.remove(pos);
+                clientStatesByPos.remove(pos, state);
+            }
+        }
+        if (packet.addedPositions != null) {
+            for (final long pos : packet.addedPositions) {
+                addClientPosition(state, pos);
+            }
+        }
+        if (packet.nbt != null) {
+            state.nbt = packet.nbt;
+            state.version++;
+        }
+    }
+    
+    private static void addClientPosition(ClientState state, long pos) {
+        state.positions.add(pos);
+        final var oldState = clientStatesByPos.put(pos, state);
+        if (oldState != null && oldState != state) {
+            // part moved controllers (merge/split), drop the old controller if nothing references it anymore
+            oldState.positions.remove(pos);
+            if (oldState.positions.isEmpty()) {
+                clientStates.remove(oldState.id);
+            }
+        }
+    }
+    
+    static synchronized void clientPartRemoved(BlockPos pos) {
+        final var state = clientStatesByPos.remove(pos.asLong());
+        if (state == null) {
+            return;
+        }
+        state.positions.remove(pos.asLong());
+        if (state.positions.isEmpty()) {
+            clientStates.remove(state.id);
+        }
+    }
+    
+    /**
+     * Client side only
+     *
+     * @param pos position of a part
+     * @return the shared state for the controller that part belongs to, if any has been received
+     */
+    @Nullable
+    public static synchronized ClientState clientState(BlockPos pos) {
+        return clientStatesByPos.get(pos.asLong());
+    }
+    
+    private static void onLevelUnload(LevelEvent.Unload event) {
+        if (!event.getLevel().isClientSide()) {
+            return;
+        }
+        synchronized (MultiblockSync.class) {
+            clientStates.clear();
+            clientStatesByPos.clear();
+        }
+    }
+}
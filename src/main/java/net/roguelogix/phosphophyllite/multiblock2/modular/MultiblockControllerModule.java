@@ -19,6 +19,49 @@ public abstract class MultiblockControllerModule<
         ControllerType extends MultiblockController<TileType, BlockType, ControllerType> & IModularMultiblockController<TileType, BlockType, ControllerType>
         > implements IDebuggable {
     
+    /**
+     * Per part and per tick callbacks, the controller only calls each on the modules that override it
+     */
+    public enum Hook {
+        CAN_ATTACH_PART("canAttachPart", BlockEntity.class),
+        PART_ADDED("onPartAdded", BlockEntity.class),
+        PART_REMOVED("onPartRemoved", BlockEntity.class),
+        PART_LOADED("onPartLoaded", BlockEntity.class),
+        PART_UNLOADED("onPartUnloaded", BlockEntity.class),
+        PART_ATTACHED("onPartAttached", BlockEntity.class),
+        PART_DETACHED("onPartDetached", BlockEntity.class),
+        PART_PLACED("onPartPlaced", BlockEntity.class),
+        PART_BROKEN("onPartBroken", BlockEntity.class),
+        UPDATE("update"),
+        ;
+        
+        private final String methodName;
+        private final Class<?>[] parameters;
+        
+        Hook(String methodName, Class<?>... parameters) {
+            this.methodName = methodName;
+            this.parameters = parameters;
+        }
+    }
+    
+    // bitmask of the hooks each module class overrides, subclasses with narrower type bounds override through bridge methods, which are found the same way
+    private static final ClassValue<Integer> OVERRIDDEN_HOOKS = new ClassValue<>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            int mask = 0;
+            for (final var hook : Hook.values()) {
+                try {
+                    if (type.getMethod(hook.methodName, hook.parameters).getDeclaringClass() == MultiblockControllerModule.class) {
+                        continue;
+                    }
+                } catch (NoSuchMethodException ignored) {
+                }
+                mask |= 1 << hook.ordinal();
+            }
+            return mask;
+        }
+    };
+    
     public final ControllerType controller;
     
     public MultiblockControllerModule(ControllerType controller) {
@@ -33,6 +76,10 @@ public abstract class MultiblockControllerModule<
     public void postModuleConstruction() {
     }
     
+    public final boolean overrides(Hook hook) {
+        return (OVERRIDDEN_HOOKS.get(getClass()) & (1 << hook.ordinal())) != 0;
+    }
+    
     public List<MultiblockControllerModule<TileType, BlockType, ControllerType>> modules() {
         return controller.modules();
     }
@@ -1,5 +1,6 @@
 package net.roguelogix.phosphophyllite.multiblock2.modular;
 
+import net.roguelogix.phosphophyllite.modular.api.ModuleConstructionPlan;
 import net.roguelogix.phosphophyllite.util.NonnullDefault;
 
 import java.util.LinkedHashMap;
@@ -10,16 +11,24 @@ import java.util.function.Function;
 public class MultiblockControllerModuleRegistry {
     
     private static final LinkedHashMap<Class<? extends IModularMultiblockController<?, ?, ?>>, Function<IModularMultiblockController<?, ?, ?>, MultiblockControllerModule<?, ?, ?>>> moduleRegistry = new LinkedHashMap<>();
-    
+    private static final ModuleConstructionPlan.Cache<IModularMultiblockController<?, ?, ?>, MultiblockControllerModule<?, ?, ?>> plans = new ModuleConstructionPlan.Cache<>(MultiblockControllerModuleRegistry.class, moduleRegistry);
     
     public synchronized static <T extends IModularMultiblockController<?, ?, ?>> void registerModule(Class<T> moduleInterface, Function<T, MultiblockControllerModule<?, ?, ?>> constructor) {
         //noinspection unchecked
         final Function<IModularMultiblockController<?, ?, ?>, MultiblockControllerModule<?, ?, ?>> wrapped = controller -> constructor.apply((T) controller);
         moduleRegistry.put(moduleInterface, wrapped);
+        plans.invalidate();
     }
     
     public static void forEach(BiConsumer<Class<? extends IModularMultiblockController<?, ?, ?>>, Function<IModularMultiblockController<?, ?, ?>, MultiblockControllerModule<?, ?, ?>>> callback) {
         moduleRegistry.forEach(callback);
     }
     
+    /**
+     * @return the modules to construct for instances of this controller class, matched once per class
+     */
+    public static ModuleConstructionPlan<IModularMultiblockController<?, ?, ?>, MultiblockControllerModule<?, ?, ?>> plan(Class<?> controllerClass) {
+        return plans.get(controllerClass);
+    }
+    
 }
@@ -17,6 +17,7 @@ import net.roguelogix.phosphophyllite.multiblock2.validated.IValidatedMultiblock
 import net.roguelogix.phosphophyllite.registry.OnModLoad;
 import net.roguelogix.phosphophyllite.repack.org.joml.Vector3i;
 import net.roguelogix.phosphophyllite.util.FastArraySet;
+import net.roguelogix.phosphophyllite.util.IntrusiveFastArraySet;
 import net.roguelogix.phosphophyllite.util.NonnullDefault;
 import net.roguelogix.phosphophyllite.util.VectorUtil;
 
@@ -41,8 +42,7 @@ public interface ITouchingMultiblock<
         final Vector3i min = new Vector3i();
         final Vector3i max = new Vector3i();
         
-        private final FastArraySet<ITouchingMultiblockTile.Module<TileType, BlockType, ControllerType>> touchingModules = new FastArraySet<>();
-        private final FastArraySet<MultiblockTileModule<TileType, BlockType, ControllerType>> multiblockModules = new FastArraySet<>();
+        private final FastArraySet<ITouchingMultiblockTile.Module<TileType, BlockType, ControllerType>> touchingModules = new IntrusiveFastArraySet<>();
         
         @OnModLoad
         public static void register() {
@@ -67,26 +67,19 @@ public interface ITouchingMultiblock<
                         module.assembled = true;
                         module.min.set(min);
                         module.max.set(max);
+                        module.markSaveDirty();
                     }
                 }
                 case DISASSEMBLED -> {
                     if (oldAssemblyState == IValidatedMultiblock.AssemblyState.DISASSEMBLED) {
                         break;
                     }
-                    final var minE = controller.min();
-                    final var maxE = controller.max();
-                    for (int i = 0; i < multiblockModules.size(); i++) {
-                        final var module = multiblockModules.get(i);
-                        final var modulePos = module.iface.getBlockPos();
-                        if (modulePos.getX() == minE.x() || modulePos.getX() == maxE.x()
-                                || modulePos.getY() == minE.y() || modulePos.getY() == maxE.y()
-                                || modulePos.getZ() == minE.z() || modulePos.getZ() == maxE.z()) {
-                            module.attachToNeighborsLater();
-                        }
-                    }
+                    controller.boundary.forEachOnBoundary(MultiblockTileModule::attachToNeighborsLater);
                     assembled = false;
                     for (int i = 0; i < touchingModules.size(); i++) {
-                        touchingModules.get(i).assembled = false;
+                        final var module = touchingModules.get(i);
+                        module.assembled = false;
+                        module.markSaveDirty();
                     }
                     min.set(0);
                     max.set(0);
@@ -118,14 +111,12 @@ public interface ITouchingMultiblock<
             }
             //noinspection unchecked
             touchingModules.add(module);
-            multiblockModules.add(tile.multiblockModule());
         }
         
         @Override
         public void onPartRemoved(@Nonnull TileType tile) {
             //noinspection unchecked
             touchingModules.remove(Objects.requireNonNull(tile.module(ITouchingMultiblockTile.class, ITouchingMultiblockTile.Module.class)));
-            multiblockModules.remove(tile.multiblockModule());
         }
     }
 }
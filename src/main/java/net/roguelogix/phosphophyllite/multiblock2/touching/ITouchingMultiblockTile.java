@@ -66,6 +66,12 @@ public interface ITouchingMultiblockTile<
             max.set(nbt.getInt("maxx"), nbt.getInt("maxy"), nbt.getInt("maxz"));
         }
         
+        @Override
+        public boolean cacheSaveNBT() {
+            // only changes on assembly state transitions, which mark it dirty
+            return true;
+        }
+        
         @Override
         public CompoundTag writeNBT() {
             final var tag = new CompoundTag();
@@ -227,7 +227,6 @@ public interface IValidatedMultiblock<
             }
             for (int i = 0; i < size; i++) {
                 final var entity = tileElements[i];
-                // TODO: this is slow, *very* slow
                 final var module = entity.validatedModule();
                 final var pos = posElements[i];
                 final BlockState oldState = entity.getBlockState();
@@ -252,7 +251,6 @@ public interface IValidatedMultiblock<
             }
             for (int i = 0; i < size; i++) {
                 final var entity = tileElements[i];
-                // TODO: this is slow, *very* slow
                 final var module = entity.validatedModule();
                 final var pos = posElements[i];
                 final BlockState oldState = entity.getBlockState();
@@ -6,6 +6,7 @@ import net.minecraft.world.level.block.entity.BlockEntity;
 import net.minecraft.world.level.block.state.BlockState;
 import net.roguelogix.phosphophyllite.modular.api.IModularTile;
 import net.roguelogix.phosphophyllite.modular.api.ModuleRegistry;
+import net.roguelogix.phosphophyllite.modular.api.ModuleSlot;
 import net.roguelogix.phosphophyllite.modular.api.TileModule;
 import net.roguelogix.phosphophyllite.multiblock2.IMultiblockTile;
 import net.roguelogix.phosphophyllite.multiblock2.MultiblockController;
@@ -22,10 +23,11 @@ public interface IValidatedMultiblockTile<
         ControllerType extends MultiblockController<TileType, BlockType, ControllerType> & IValidatedMultiblock<TileType, BlockType, ControllerType>
         > extends IMultiblockTile<TileType, BlockType, ControllerType> {
     
+    ModuleSlot VALIDATED_MODULE_SLOT = ModuleRegistry.tileSlot(IValidatedMultiblockTile.class);
     
     default Module<TileType, BlockType, ControllerType> validatedModule() {
         //noinspection unchecked,ConstantConditions
-        return module(IValidatedMultiblockTile.class, Module.class);
+        return (Module<TileType, BlockType, ControllerType>) module(VALIDATED_MODULE_SLOT);
     }
     
     class Module<TileType extends BlockEntity & IValidatedMultiblockTile<TileType, BlockType, ControllerType>,
@@ -0,0 +1,313 @@
+package net.roguelogix.phosphophyllite.serialization;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import net.minecraft.nbt.*;
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+
+import java.io.*;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compact binary encoding for CompoundTags
+ * <p>
+ * Keys are deduplicated into a string table and integers are variable length
+ * The encoded form starts with a magic and version, and its body can optionally be deflate compressed
+ * Decoding produces a tag equal to the one encoded
+ */
+@NonnullDefault
+public class CompactNBT {
+    
+    public static final byte VERSION = 1;
+    
+    private static final byte[] MAGIC = {'P', 'C', 'N', 'B'};
+    private static final int HEADER_LENGTH = MAGIC.length + 2;
+    private static final byte FLAG_COMPRESSED = 1;
+    // same as vanilla's NBT reader
+    private static final int MAX_DEPTH = 512;
+    
+    public static byte[] encode(CompoundTag tag, boolean compress) {
+        final var bytes = encode(tag);
+        return compress ? compress(bytes) : bytes;
+    }
+    
+    /**
+     * @return uncompressed encoding of the tag
+     */
+    public static byte[] encode(CompoundTag tag) {
+        final var keys = new Object2IntOpenHashMap<String>();
+        keys.defaultReturnValue(-1);
+        final var keyList = new ObjectArrayList<String>();
+        collectKeys(tag, keys, keyList);
+        
+        final var byteStream = new ByteArrayOutputStream();
+        try {
+            byteStream.write(MAGIC);
+            byteStream.write(VERSION);
+            byteStream.write(0);
+            final var output = new DataOutputStream(new BufferedOutputStream(byteStream));
+            writeVarInt(output, keyList.size());
+            for (int i = 0; i < keyList.size(); i++) {
+                output.writeUTF(keyList.get(i));
+            }
+            writeCompound(output, tag, keys);
+            output.close();
+        } catch (IOException e) {
+            // ByteArrayOutputStream doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return byteStream.toByteArray();
+    }
+    
+    /**
+     * Deflates the body of an encoding, already compressed encodings are returned as is
+     */
+    public static byte[] compress(byte[] encoded) {
+        if (!isCompact(encoded)) {
+            throw new IllegalArgumentException("Not compact NBT");
+        }
+        if ((encoded[MAGIC.length + 1] & FLAG_COMPRESSED) != 0) {
+            return encoded;
+        }
+        final var byteStream = new ByteArrayOutputStream(encoded.length / 2);
+        byteStream.write(encoded, 0, MAGIC.length + 1);
+        byteStream.write(encoded[MAGIC.length + 1] | FLAG_COMPRESSED);
+        try (final var deflater = new DeflaterOutputStream(byteStream)) {
+            deflater.write(encoded, HEADER_LENGTH, encoded.length - HEADER_LENGTH);
+        } catch (IOException e) {
+            // ByteArrayOutputStream doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return byteStream.toByteArray();
+    }
+    
+    /**
+     * @return if the bytes start with the compact NBT header, of any version
+     */
+    public static boolean isCompact(byte[] bytes) {
+        if (bytes.length < HEADER_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    public static CompoundTag decode(byte[] bytes) throws IOException {
+        if (!isCompact(bytes)) {
+            throw new IOException("Not compact NBT");
+        }
+        final byte version = bytes[MAGIC.length];
+        if (version != VERSION) {
+            throw new IOException("Unknown compact NBT version " + version);
+        }
+        final byte flags = bytes[MAGIC.length + 1];
+        byte[] body = bytes;
+        int offset = HEADER_LENGTH;
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            try (final var inflater = new InflaterInputStream(new ByteArrayInputStream(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH))) {
+                body = inflater.readAllBytes();
+            }
+            offset = 0;
+        }
+        // read straight from the array, so every length can be checked against the bytes left before anything is allocated for it
+        final var input = new DataInputStream(new ByteArrayInputStream(body, offset, body.length - offset));
+        // every key is at least its 2 byte length
+        final var keyCount = readLength(input, 2);
+        final var keys = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = input.readUTF();
+        }
+        return readCompound(input, keys, 0);
+    }
+    
+    private static void collectKeys(Tag tag, Object2IntOpenHashMap<String> keys, ObjectArrayList<String> keyList) {
+        if (tag instanceof CompoundTag compound) {
+            for (final var key : compound.getAllKeys()) {
+                if (keys.getInt(key) == -1) {
+                    keys.put(key, keyList.size());
+                    keyList.add(key);
+                }
+                collectKeys(compound.get(key), keys, keyList);
+            }
+        } else if (tag instanceof ListTag list && (list.getElementType() == Tag.TAG_COMPOUND || list.getElementType() == Tag.TAG_LIST)) {
+            for (final var element : list) {
+                collectKeys(element, keys, keyList);
+            }
+        }
+    }
+    
+    private static void writeCompound(DataOutputStream output, CompoundTag compound, Object2IntOpenHashMap<String> keys) throws IOException {
+        final var tagKeys = compound.getAllKeys();
+        writeVarInt(output, tagKeys.size());
+        for (final var key : tagKeys) {
+            final var value = compound.get(key);
+            assert value != null;
+            writeVarInt(output, keys.getInt(key));
+            output.writeByte(value.getId());
+            writeValue(output, value, keys);
+        }
+    }
+    
+    private static void writeValue(DataOutputStream output, Tag tag, Object2IntOpenHashMap<String> keys) throws IOException {
+        switch (tag.getId()) {
+            case Tag.TAG_BYTE -> output.writeByte(((NumericTag) tag).getAsByte());
+            case Tag.TAG_SHORT -> writeVarLong(output, ((NumericTag) tag).getAsShort());
+            case Tag.TAG_INT -> writeVarLong(output, ((NumericTag) tag).getAsInt());
+            case Tag.TAG_LONG -> writeVarLong(output, ((NumericTag) tag).getAsLong());
+            case Tag.TAG_FLOAT -> output.writeFloat(((NumericTag) tag).getAsFloat());
+            case Tag.TAG_DOUBLE -> output.writeDouble(((NumericTag) tag).getAsDouble());
+            case Tag.TAG_STRING -> output.writeUTF(tag.getAsString());
+            case Tag.TAG_BYTE_ARRAY -> {
+                final var array = ((ByteArrayTag) tag).getAsByteArray();
+                writeVarInt(output, array.length);
+                output.write(array);
+            }
+            case Tag.TAG_INT_ARRAY -> {
+                final var array = ((IntArrayTag) tag).getAsIntArray();
+                writeVarInt(output, array.length);
+                for (final int value : array) {
+                    writeVarLong(output, value);
+                }
+            }
+            case Tag.TAG_LONG_ARRAY -> {
+                final var array = ((LongArrayTag) tag).getAsLongArray();
+                writeVarInt(output, array.length);
+                for (final long value : array) {
+                    writeVarLong(output, value);
+                }
+            }
+            case Tag.TAG_LIST -> {
+                final var list = (ListTag) tag;
+                final byte elementType = list.getElementType();
+                output.writeByte(elementType);
+                writeVarInt(output, list.size());
+                // every element has the same type, so they are packed without per element type info
+                for (final var element : list) {
+                    writeValue(output, element, keys);
+                }
+            }
+            case Tag.TAG_COMPOUND -> writeCompound(output, (CompoundTag) tag, keys);
+            default -> throw new IllegalArgumentException("Unknown NBT tag type " + tag.getId());
+        }
+    }
+    
+    private static CompoundTag readCompound(DataInputStream input, String[] keys, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("Compact NBT nested deeper than " + MAX_DEPTH);
+        }
+        final var compound = new CompoundTag();
+        // key index, type, and at least one byte of value
+        final int size = readLength(input, 3);
+        for (int i = 0; i < size; i++) {
+            final int keyIndex = readVarInt(input);
+            if (keyIndex < 0 || keyIndex >= keys.length) {
+                throw new IOException("Invalid compact NBT key index " + keyIndex);
+            }
+            compound.put(keys[keyIndex], readValue(input, input.readByte(), keys, depth + 1));
+        }
+        return compound;
+    }
+    
+    private static Tag readValue(DataInputStream input, byte type, String[] keys, int depth) throws IOException {
+        return switch (type) {
+            case Tag.TAG_BYTE -> ByteTag.valueOf(input.readByte());
+            case Tag.TAG_SHORT -> ShortTag.valueOf((short) readVarLong(input));
+            case Tag.TAG_INT -> IntTag.valueOf((int) readVarLong(input));
+            case Tag.TAG_LONG -> LongTag.valueOf(readVarLong(input));
+            case Tag.TAG_FLOAT -> FloatTag.valueOf(input.readFloat());
+            case Tag.TAG_DOUBLE -> DoubleTag.valueOf(input.readDouble());
+            case Tag.TAG_STRING -> StringTag.valueOf(input.readUTF());
+            case Tag.TAG_BYTE_ARRAY -> {
+                final var array = new byte[readLength(input, 1)];
+                input.readFully(array);
+                yield new ByteArrayTag(array);
+            }
+            case Tag.TAG_INT_ARRAY -> {
+                final var array = new int[readLength(input, 1)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = (int) readVarLong(input);
+                }
+                yield new IntArrayTag(array);
+            }
+            case Tag.TAG_LONG_ARRAY -> {
+                final var array = new long[readLength(input, 1)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readVarLong(input);
+                }
+                yield new LongArrayTag(array);
+            }
+            case Tag.TAG_LIST -> {
+                if (depth > MAX_DEPTH) {
+                    throw new IOException("Compact NBT nested deeper than " + MAX_DEPTH);
+                }
+                final byte elementType = input.readByte();
+                final int size = readLength(input, 1);
+                final var list = new ListTag();
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(input, elementType, keys, depth + 1));
+                }
+                yield list;
+            }
+            case Tag.TAG_COMPOUND -> readCompound(input, keys, depth);
+            default -> throw new IOException("Unknown NBT tag type " + type);
+        };
+    }
+    
+    private static void writeVarInt(DataOutputStream output, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte(value);
+    }
+    
+    private static int readVarInt(DataInputStream input) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final int b = input.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("VarInt too long");
+    }
+    
+    /**
+     * @param minElementBytes fewest bytes each element can be encoded in
+     */
+    private static int readLength(DataInputStream input, int minElementBytes) throws IOException {
+        final int length = readVarInt(input);
+        if (length < 0 || (long) length * minElementBytes > input.available()) {
+            throw new IOException("Invalid compact NBT length " + length);
+        }
+        return length;
+    }
+    
+    // zigzag encoded, so small negative numbers stay small
+    private static void writeVarLong(DataOutputStream output, long value) throws IOException {
+        value = (value << 1) ^ (value >> 63);
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+    
+    private static long readVarLong(DataInputStream input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            final int b = input.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (value >>> 1) ^ -(value & 1);
+            }
+        }
+        throw new IOException("VarLong too long");
+    }
+}
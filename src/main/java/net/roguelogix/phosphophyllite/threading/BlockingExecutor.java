@@ -0,0 +1,102 @@
+package net.roguelogix.phosphophyllite.threading;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Executor for work that blocks (file IO, network, waiting on locks), kept separate from the compute workers of Queues.offThread so blocked work never starves them
+ * <p>
+ * On Java 21+ every task runs on its own virtual thread, before that a bounded pool of platform threads is used
+ */
+@SuppressWarnings("unused")
+public class BlockingExecutor {
+    
+    private static final Logger LOGGER = LogManager.getLogger("Phosphophyllite/BlockingExecutor");
+    
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    
+    public BlockingExecutor(String name, int maxPlatformThreads) {
+        ExecutorService virtualExecutor = null;
+        try {
+            // reflective, this compiles against Java 17
+            final var builderClass = Class.forName("java.lang.Thread$Builder");
+            var builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name, 0L);
+            final var factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            virtualExecutor = (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+            // pre Java 21, or virtual threads are otherwise unavailable
+        }
+        if (virtualExecutor != null) {
+            executor = virtualExecutor;
+            virtualThreads = true;
+        } else {
+            final var threadNumber = new AtomicInteger();
+            final var pool = new ThreadPoolExecutor(maxPlatformThreads, maxPlatformThreads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                final var thread = new Thread(runnable);
+                thread.setName(name + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+            // threads only exist while there is blocking work
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+            virtualThreads = false;
+        }
+    }
+    
+    public boolean virtualThreads() {
+        return virtualThreads;
+    }
+    
+    private static Runnable logged(Runnable runnable) {
+        return () -> {
+            try {
+                runnable.run();
+            } catch (RuntimeException e) {
+                LOGGER.error("Exception in blocking task", e);
+            }
+        };
+    }
+    
+    public void enqueueUntracked(Runnable runnable) {
+        executor.execute(logged(runnable));
+    }
+    
+    /**
+     * @param events work will not be started until all of these have been triggered
+     * @return event triggered once the work has run
+     */
+    public Event enqueue(Runnable runnable, Event... events) {
+        final var doneEvent = new Event();
+        final Runnable work = () -> executor.execute(() -> {
+            try {
+                logged(runnable).run();
+            } finally {
+                doneEvent.trigger();
+            }
+        });
+        if (events.length == 0) {
+            work.run();
+        } else {
+            Event.all(events).registerCallback(work);
+        }
+        return doneEvent;
+    }
+    
+    public <T> CompletableFuture<T> submit(Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(supplier, executor);
+    }
+    
+    /**
+     * For use with CompletableFuture's *Async methods
+     */
+    public Executor executor() {
+        return executor;
+    }
+}
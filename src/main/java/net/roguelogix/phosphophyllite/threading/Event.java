@@ -1,69 +1,233 @@
 package net.roguelogix.phosphophyllite.threading;
 
-import java.util.ArrayList;
-import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * One shot, lock free event
+ * <p>
+ * All state is a single atomic word, either TRIGGERED, or the top of a stack of continuations (callbacks and parked waiters) to run once triggered
+ * Never triggers itself, anything waiting on an event that is dropped without being triggered waits forever
+ */
 public class Event {
-    private final ArrayList<Runnable> callbacks = new ArrayList<>();
-    private volatile boolean wasTriggered = false;
+    
+    private static final Object TRIGGERED = new Object();
+    private static final VarHandle STATE;
+    
+    static {
+        try {
+            STATE = MethodHandles.lookup().findVarHandle(Event.class, "state", Object.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    
+    private static final class Continuation {
+        @Nullable
+        final Runnable callback;
+        @Nullable
+        volatile Thread waiter;
+        @Nullable
+        Continuation next;
+        
+        Continuation(@Nullable Runnable callback, @Nullable Thread waiter) {
+            this.callback = callback;
+            this.waiter = waiter;
+        }
+        
+        boolean dead() {
+            return callback == null && waiter == null;
+        }
+    }
+    
+    // null, TRIGGERED, or a Continuation
+    @Nullable
+    private volatile Object state = null;
     
     public boolean ready() {
-        return wasTriggered;
+        return state == TRIGGERED;
+    }
+    
+    /**
+     * @return false if the event was already triggered, in which case the continuation was not pushed
+     */
+    private boolean push(Continuation continuation) {
+        while (true) {
+            final var current = state;
+            if (current == TRIGGERED) {
+                return false;
+            }
+            if (current != null && ((Continuation) current).dead()) {
+                // waiter that timed out, drop it while its on top, nodes are never reused so this can't ABA
+                STATE.compareAndSet(this, current, ((Continuation) current).next);
+                continue;
+            }
+            continuation.next = (Continuation) current;
+            if (STATE.compareAndSet(this, current, continuation)) {
+                return true;
+            }
+        }
     }
     
+    /**
+     * Waits until triggered, interrupts don't stop the wait, the interrupt flag is set again once it returns
+     */
     @SuppressWarnings("unused")
     public void join() {
-        if (wasTriggered) {
+        if (ready()) {
             return;
         }
-        synchronized (this) {
-            if (wasTriggered) {
-                return;
-            }
-            try {
-                wait();
-            } catch (InterruptedException ignored) {
+        final var continuation = new Continuation(null, Thread.currentThread());
+        if (!push(continuation)) {
+            return;
+        }
+        boolean interrupted = false;
+        while (!ready()) {
+            LockSupport.park(this);
+            if (Thread.interrupted()) {
+                interrupted = true;
             }
         }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
     }
     
+    /**
+     * @param timeout milliseconds
+     * @return if the event has been triggered
+     */
     @SuppressWarnings("unused")
     public boolean join(int timeout) {
-        if (wasTriggered) {
+        return join(timeout, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Interrupts don't cut the wait short, the interrupt flag is set again once it returns
+     * A waiter that times out is unlinked if it's still the newest continuation, otherwise it stays (inert) until the event is triggered
+     *
+     * @return if the event has been triggered
+     */
+    public boolean join(long timeout, TimeUnit unit) {
+        if (ready()) {
             return true;
         }
-        synchronized (this) {
-            if (wasTriggered) {
-                return true;
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        final var continuation = new Continuation(null, Thread.currentThread());
+        if (!push(continuation)) {
+            return true;
+        }
+        boolean interrupted = false;
+        while (!ready()) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
             }
-            try {
-                wait(timeout);
-            } catch (InterruptedException ignored) {
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted()) {
+                interrupted = true;
             }
         }
-        
-        return wasTriggered;
+        continuation.waiter = null;
+        // fails if anything was pushed since, or it was triggered, the next push drops it if it becomes the top again
+        STATE.compareAndSet(this, continuation, continuation.next);
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return ready();
     }
     
-    public synchronized void trigger() {
-        if (wasTriggered) {
+    public void trigger() {
+        final var previous = STATE.getAndSet(this, TRIGGERED);
+        if (previous == TRIGGERED || previous == null) {
             return;
         }
-        callbacks.forEach(Runnable::run);
-        wasTriggered = true;
-        notifyAll();
+        // the stack is newest first, callbacks are run in the order they were registered
+        Continuation reversed = null;
+        var continuation = (Continuation) previous;
+        while (continuation != null) {
+            final var next = continuation.next;
+            continuation.next = reversed;
+            reversed = continuation;
+            continuation = next;
+        }
+        RuntimeException toRethrow = null;
+        for (continuation = reversed; continuation != null; continuation = continuation.next) {
+            final var waiter = continuation.waiter;
+            if (waiter != null) {
+                LockSupport.unpark(waiter);
+            }
+            final var callback = continuation.callback;
+            if (callback == null) {
+                continue;
+            }
+            try {
+                callback.run();
+            } catch (RuntimeException e) {
+                // the other callbacks still need to run
+                if (toRethrow == null) {
+                    toRethrow = e;
+                } else {
+                    toRethrow.addSuppressed(e);
+                }
+            }
+        }
+        if (toRethrow != null) {
+            throw toRethrow;
+        }
     }
     
-    public synchronized void registerCallback(Runnable runnable) {
-        if (wasTriggered) {
+    /**
+     * Callback is run on the thread that triggers the event, or immediately if it has already been triggered
+     */
+    public void registerCallback(Runnable runnable) {
+        if (!push(new Continuation(runnable, null))) {
             runnable.run();
-            return;
         }
-        callbacks.add(runnable);
     }
     
-    @Override
-    protected void finalize() {
-        trigger();
+    /**
+     * @return event triggered once all of the events have been triggered, null events count as triggered
+     */
+    public static Event all(Event... events) {
+        final var event = new Event();
+        final var remaining = new AtomicInteger(events.length + 1);
+        final Runnable countdown = () -> {
+            if (remaining.decrementAndGet() == 0) {
+                event.trigger();
+            }
+        };
+        for (final var other : events) {
+            if (other == null) {
+                countdown.run();
+                continue;
+            }
+            other.registerCallback(countdown);
+        }
+        // the extra count keeps it from triggering while callbacks are still being registered
+        countdown.run();
+        return event;
+    }
+    
+    /**
+     * @return event triggered once any of the events has been triggered, never triggers if there are no events
+     */
+    public static Event any(Event... events) {
+        final var event = new Event();
+        for (final var other : events) {
+            if (other == null) {
+                continue;
+            }
+            // trigger is idempotent, later events triggering do nothing
+            other.registerCallback(event::trigger);
+            if (event.ready()) {
+                break;
+            }
+        }
+        return event;
     }
 }
@@ -0,0 +1,16 @@
+package net.roguelogix.phosphophyllite.threading;
+
+/**
+ * Enqueue side of a work queue, shared by WorkQueue, WorkStealingQueue, and TickBudgetedQueue
+ * How and by what thread the work is run is up to the queue
+ */
+public interface IWorkQueue {
+    
+    /**
+     * @param events work is not run until all of these have been triggered
+     * @return event triggered once the work has run
+     */
+    Event enqueue(Runnable runnable, Event... events);
+    
+    void enqueueUntracked(Runnable runnable);
+}
@@ -0,0 +1,117 @@
+package net.roguelogix.phosphophyllite.threading;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BinaryOperator;
+
+/**
+ * Runs work over an index range on Queues.offThread, split into chunks that workers and the calling thread claim until none are left
+ * <p>
+ * The calling thread takes part too, so this finishes even if every worker is busy, and it blocks until all chunks have run
+ * Any exception thrown by a chunk is rethrown on the calling thread
+ */
+public final class ParallelRange {
+    
+    public interface RangeConsumer {
+        void accept(int from, int to);
+    }
+    
+    public interface RangeFunction<R> {
+        R apply(int from, int to);
+    }
+    
+    private final int size;
+    private final int chunkSize;
+    private final int chunks;
+    private final RangeFunction<?> function;
+    @Nullable
+    private final Object[] results;
+    private final AtomicInteger nextChunk = new AtomicInteger();
+    private final AtomicInteger remainingChunks;
+    private final Event done = new Event();
+    @Nullable
+    private volatile Throwable error;
+    
+    private ParallelRange(int size, int minChunkSize, RangeFunction<?> function, boolean keepResults) {
+        this.size = size;
+        this.function = function;
+        final int threads = Queues.offThreadPool.threads() + 1;
+        // a few chunks per thread, so uneven work balances out
+        chunkSize = Math.max(Math.max(1, minChunkSize), size / (threads * 4));
+        chunks = (size + chunkSize - 1) / chunkSize;
+        results = keepResults ? new Object[chunks] : null;
+        remainingChunks = new AtomicInteger(chunks);
+    }
+    
+    /**
+     * @param minChunkSize smallest range handed to one thread, ranges smaller than this are run entirely on the calling thread
+     */
+    public static void forEach(int size, int minChunkSize, RangeConsumer consumer) {
+        if (size <= minChunkSize) {
+            if (size > 0) {
+                consumer.accept(0, size);
+            }
+            return;
+        }
+        new ParallelRange(size, minChunkSize, (from, to) -> {
+            consumer.accept(from, to);
+            return null;
+        }, false).run();
+    }
+    
+    /**
+     * Chunk results are combined on the calling thread, in range order, so combiner doesn't need to be commutative
+     */
+    public static <R> R reduce(int size, int minChunkSize, RangeFunction<R> function, BinaryOperator<R> combiner, R identity) {
+        if (size <= minChunkSize) {
+            return size > 0 ? combiner.apply(identity, function.apply(0, size)) : identity;
+        }
+        final var range = new ParallelRange(size, minChunkSize, function, true);
+        range.run();
+        assert range.results != null;
+        R result = identity;
+        for (final var chunkResult : range.results) {
+            //noinspection unchecked
+            result = combiner.apply(result, (R) chunkResult);
+        }
+        return result;
+    }
+    
+    private void run() {
+        final int helpers = Math.min(chunks - 1, Queues.offThreadPool.threads());
+        for (int i = 0; i < helpers; i++) {
+            Queues.offThreadPool.enqueueUntracked(WorkStealingQueue.Priority.HIGH, this::work);
+        }
+        work();
+        done.join();
+        final var error = this.error;
+        if (error instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        } else if (error instanceof Error actualError) {
+            throw actualError;
+        } else if (error != null) {
+            throw new RuntimeException(error);
+        }
+    }
+    
+    private void work() {
+        int chunk;
+        while ((chunk = nextChunk.getAndIncrement()) < chunks) {
+            final int from = chunk * chunkSize;
+            final int to = Math.min(size, from + chunkSize);
+            try {
+                final var result = function.apply(from, to);
+                if (results != null) {
+                    results[chunk] = result;
+                }
+            } catch (Throwable e) {
+                // rethrown on the calling thread
+                error = e;
+            }
+            // the countdown orders the result write before the calling thread reads it
+            if (remainingChunks.decrementAndGet() == 0) {
+                done.trigger();
+            }
+        }
+    }
+}
@@ -5,16 +5,20 @@ import net.minecraftforge.fml.loading.FMLEnvironment;
 import net.roguelogix.phosphophyllite.registry.OnModLoad;
 
 public class Queues {
-    public static final WorkQueue serverThread;
+    public static final TickBudgetedQueue serverThread;
     public static final WorkQueue clientThread;
-    public static final WorkQueue offThread;
+    public static final IWorkQueue offThread;
+    // offThread's implementation, for ParallelRange's priorities and worker count
+    static final WorkStealingQueue offThreadPool;
+    // for work that blocks, so it never occupies offThread's workers
+    public static final BlockingExecutor blocking;
     
     @OnModLoad
     private static void onModLoad() {
     }
     
     static {
-        WorkQueue serverThread1 = null;
+        TickBudgetedQueue serverThread1 = null;
         WorkQueue clientThread1 = null;
         int threads = Runtime.getRuntime().availableProcessors();
         threads = Math.max(1, threads - 1); // if possible, leave a core for the main server threads
@@ -23,13 +27,15 @@ public class Queues {
                 threads = Math.max(1, threads - 1); // if possible, leave a core for the main client thread too
                 clientThread1 = new WorkQueue();
             }
-            serverThread1 = new WorkQueue();
+            serverThread1 = new TickBudgetedQueue();
         }catch (NoClassDefFoundError ignored){
             // happens when forge isn't loaded
         }
         serverThread = serverThread1;
         clientThread = clientThread1;
-        offThread = new WorkQueue();
-        offThread.addProcessingThreads(threads, "Phosphophyllite OffThread Queue Worker Thread #");
+        // soft limit, only tryEnqueue respects it
+        offThreadPool = new WorkStealingQueue(threads, 65536, "Phosphophyllite OffThread Queue Worker Thread #");
+        offThread = offThreadPool;
+        blocking = new BlockingExecutor("Phosphophyllite Blocking Worker Thread #", 8);
     }
 }
@@ -0,0 +1,164 @@
+package net.roguelogix.phosphophyllite.threading;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Queue of work for a tick driven thread, any thread can enqueue, only the ticking thread drains it
+ * <p>
+ * Each drain runs everything marked as must run this tick, then as much of the normal work as fits in the time budget
+ * Normal work that doesn't fit is carried over to the next drain, in order
+ * Work enqueued while draining is never run by that same drain, unless it is must run this tick
+ * <p>
+ * Work enqueued through the IWorkQueue methods is normal (budgeted) work
+ */
+@SuppressWarnings("unused")
+public class TickBudgetedQueue implements IWorkQueue {
+    
+    private record Task(Runnable work, long epoch, @Nullable Event doneEvent) {
+        void run() {
+            // exceptions propagate to the ticking thread, same as running the work directly would
+            try {
+                work.run();
+            } finally {
+                if (doneEvent != null) {
+                    doneEvent.trigger();
+                }
+            }
+        }
+    }
+    
+    private final ConcurrentLinkedQueue<Task> thisTick = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Task> normal = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    // only written by the draining thread, tasks tagged with the current epoch were enqueued during the current drain
+    private volatile long epoch = 0;
+    
+    private long lastRan = 0;
+    private long lastCarriedOver = 0;
+    private long lastDrainNanos = 0;
+    
+    public Event enqueue(Runnable runnable) {
+        final var event = new Event();
+        push(normal, new Task(runnable, epoch, event));
+        return event;
+    }
+    
+    /**
+     * @param events work is not queued until all of these have been triggered
+     */
+    @Override
+    public Event enqueue(Runnable runnable, Event... events) {
+        if (events.length == 0) {
+            return enqueue(runnable);
+        }
+        final var event = new Event();
+        Event.all(events).registerCallback(() -> push(normal, new Task(runnable, epoch, event)));
+        return event;
+    }
+    
+    @Override
+    public void enqueueUntracked(Runnable runnable) {
+        push(normal, new Task(runnable, epoch, null));
+    }
+    
+    /**
+     * Work that must run in the next drain (or the current one, if enqueued while draining), regardless of the time budget
+     */
+    public Event enqueueThisTick(Runnable runnable) {
+        final var event = new Event();
+        push(thisTick, new Task(runnable, epoch, event));
+        return event;
+    }
+    
+    public void enqueueThisTickUntracked(Runnable runnable) {
+        push(thisTick, new Task(runnable, epoch, null));
+    }
+    
+    private void push(ConcurrentLinkedQueue<Task> queue, Task task) {
+        pending.incrementAndGet();
+        queue.add(task);
+    }
+    
+    /**
+     * Must only be called from the thread this queue is for
+     * At least one normal task is run if any are pending, so carried over work can't be starved by a zero budget
+     *
+     * @param budgetNanos time normal work may take, must run this tick work is not limited by it
+     */
+    public void drain(long budgetNanos) {
+        final long startTime = System.nanoTime();
+        final long drainEpoch = epoch;
+        epoch = drainEpoch + 1;
+        long ran = 0;
+        
+        Task task;
+        while ((task = thisTick.poll()) != null) {
+            pending.decrementAndGet();
+            task.run();
+            ran++;
+        }
+        
+        final long deadline = startTime + budgetNanos;
+        boolean first = true;
+        while ((task = normal.peek()) != null) {
+            if (task.epoch > drainEpoch) {
+                // enqueued during this drain, everything after it was too
+                break;
+            }
+            if (!first && System.nanoTime() - deadline > 0) {
+                break;
+            }
+            first = false;
+            normal.poll();
+            pending.decrementAndGet();
+            task.run();
+            ran++;
+            // work run above may have needed something else run this tick
+            while ((task = thisTick.poll()) != null) {
+                pending.decrementAndGet();
+                task.run();
+                ran++;
+            }
+        }
+        
+        lastRan = ran;
+        lastCarriedOver = pending.get();
+        lastDrainNanos = System.nanoTime() - startTime;
+    }
+    
+    /**
+     * Runs everything, including work enqueued while running, until the queue is empty, ignoring any budget
+     * For shutdown, or when the thread isn't ticking
+     */
+    public void drainAll() {
+        Task task;
+        while (true) {
+            if ((task = thisTick.poll()) == null && (task = normal.poll()) == null) {
+                return;
+            }
+            pending.decrementAndGet();
+            task.run();
+        }
+    }
+    
+    public int pending() {
+        return pending.get();
+    }
+    
+    public long lastRan() {
+        return lastRan;
+    }
+    
+    /**
+     * @return pending work left after the last drain, including anything enqueued during it
+     */
+    public long lastCarriedOver() {
+        return lastCarriedOver;
+    }
+    
+    public long lastDrainNanos() {
+        return lastDrainNanos;
+    }
+}
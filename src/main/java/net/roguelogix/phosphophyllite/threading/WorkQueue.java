@@ -12,7 +12,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 @SuppressWarnings("unused")
-public class WorkQueue {
+public class WorkQueue implements IWorkQueue {
     private final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
     
     private final ArrayList<DequeueThread> dequeueThreads = new ArrayList<>();
@@ -140,6 +140,7 @@ public class WorkQueue {
         }
     }
     
+    @Override
     public Event enqueue(Runnable runnable, Event... events) {
         if (toRethrow != null) {
             throw toRethrow;
@@ -148,6 +149,7 @@ public class WorkQueue {
         return item.waitEvent;
     }
     
+    @Override
     public void enqueueUntracked(Runnable runnable) {
         queue.add(runnable);
     }
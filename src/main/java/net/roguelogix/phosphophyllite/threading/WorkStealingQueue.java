@@ -0,0 +1,361 @@
+package net.roguelogix.phosphophyllite.threading;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Multithreaded work queue, with a deque per worker and work stealing between them
+ * <p>
+ * Work enqueued from a worker goes to that worker's own deque, and is run newest first by it, other workers steal the oldest work when they run out
+ * Work enqueued from any other thread goes to a shared injection queue
+ * Higher priority work is always taken before lower priority work, across all deques
+ * <p>
+ * The queue has a soft capacity, enqueue always accepts work, but tryEnqueue refuses it once the capacity is reached and saturated() can be checked by producers that can back off
+ * <p>
+ * Meant for compute work, anything that blocks (IO) belongs on a BlockingExecutor (Queues.blocking) instead
+ */
+@SuppressWarnings("unused")
+public class WorkStealingQueue implements IWorkQueue {
+    
+    private static final Logger LOGGER = LogManager.getLogger("Phosphophyllite/WorkStealingQueue");
+    
+    public enum Priority {
+        HIGH,
+        NORMAL,
+        LOW,
+    }
+    
+    private static final Priority[] PRIORITIES = Priority.values();
+    
+    private final class Task implements Runnable {
+        final Runnable work;
+        final Priority priority;
+        @Nullable
+        final Event doneEvent;
+        long enqueueTime;
+        
+        Task(Runnable work, Priority priority, @Nullable Event doneEvent) {
+            this.work = work;
+            this.priority = priority;
+            this.doneEvent = doneEvent;
+        }
+        
+        @Override
+        public void run() {
+            final long startTime = System.nanoTime();
+            recordLatency(startTime - enqueueTime);
+            try {
+                work.run();
+            } catch (RuntimeException e) {
+                toRethrow = e;
+                LOGGER.error("Exception in work queue task", e);
+            } catch (Throwable e) {
+                // this should be impossible, but just in case
+                toRethrow = new RuntimeException(e);
+                LOGGER.fatal("Throwable rolled back to Phosphophyllite WorkStealingQueue", e);
+            } finally {
+                runNanos.add(System.nanoTime() - startTime);
+                completed.increment();
+                if (doneEvent != null) {
+                    // callbacks are run here, and rethrow, that must not take the worker down with it
+                    try {
+                        doneEvent.trigger();
+                    } catch (RuntimeException e) {
+                        toRethrow = e;
+                        LOGGER.error("Exception in work queue task completion callback", e);
+                    } catch (Throwable e) {
+                        toRethrow = new RuntimeException(e);
+                        LOGGER.fatal("Throwable rolled back to Phosphophyllite WorkStealingQueue", e);
+                    }
+                }
+            }
+        }
+    }
+    
+    private final class Worker implements Runnable {
+        final int index;
+        @SuppressWarnings("unchecked")
+        final ConcurrentLinkedDeque<Task>[] deques = new ConcurrentLinkedDeque[PRIORITIES.length];
+        final Thread thread;
+        volatile boolean idle = false;
+        
+        Worker(int index, String name) {
+            this.index = index;
+            for (int i = 0; i < deques.length; i++) {
+                deques[i] = new ConcurrentLinkedDeque<>();
+            }
+            thread = new Thread(this);
+            thread.setName(name + index);
+            thread.setDaemon(true);
+        }
+        
+        @Override
+        public void run() {
+            currentWorker.set(this);
+            while (!stop) {
+                final var task = findTask(this);
+                if (task != null) {
+                    task.run();
+                    continue;
+                }
+                idle = true;
+                idleWorkers.add(this);
+                // re-check after becoming idle, anything enqueued before this either is found here, or will unpark this worker
+                final var lateTask = findTask(this);
+                if (lateTask != null) {
+                    idle = false;
+                    idleWorkers.remove(this);
+                    lateTask.run();
+                    continue;
+                }
+                while (idle && !stop) {
+                    LockSupport.park(this);
+                }
+            }
+        }
+    }
+    
+    private final Worker[] workers;
+    private final ThreadLocal<Worker> currentWorker = new ThreadLocal<>();
+    @SuppressWarnings("unchecked")
+    private final ConcurrentLinkedQueue<Task>[] injectionQueues = new ConcurrentLinkedQueue[PRIORITIES.length];
+    private final ConcurrentLinkedQueue<Worker> idleWorkers = new ConcurrentLinkedQueue<>();
+    private volatile boolean stop = false;
+    
+    private final int capacity;
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicInteger[] priorityDepth = new AtomicInteger[PRIORITIES.length];
+    
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder refused = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final LongAdder runNanos = new LongAdder();
+    
+    @Nullable
+    private volatile RuntimeException toRethrow;
+    
+    public WorkStealingQueue(int threads, int capacity, String name) {
+        this.capacity = capacity;
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            injectionQueues[i] = new ConcurrentLinkedQueue<>();
+            priorityDepth[i] = new AtomicInteger();
+        }
+        workers = new Worker[Math.max(1, threads)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(i, name);
+        }
+        for (final var worker : workers) {
+            worker.thread.start();
+        }
+    }
+    
+    @Nullable
+    private Task findTask(Worker worker) {
+        for (int p = 0; p < PRIORITIES.length; p++) {
+            var task = worker.deques[p].pollFirst();
+            if (task == null) {
+                task = injectionQueues[p].poll();
+            }
+            if (task == null) {
+                // start stealing from the next worker over, so thieves spread out
+                for (int i = 1; i < workers.length && task == null; i++) {
+                    task = workers[(worker.index + i) % workers.length].deques[p].pollLast();
+                }
+            }
+            if (task != null) {
+                depth.decrementAndGet();
+                priorityDepth[p].decrementAndGet();
+                return task;
+            }
+        }
+        return null;
+    }
+    
+    private void recordLatency(long nanos) {
+        latencyNanos.add(nanos);
+        long max = maxLatencyNanos.get();
+        while (nanos > max && !maxLatencyNanos.compareAndSet(max, nanos)) {
+            max = maxLatencyNanos.get();
+        }
+    }
+    
+    private void push(Task task) {
+        task.enqueueTime = System.nanoTime();
+        submitted.increment();
+        depth.incrementAndGet();
+        priorityDepth[task.priority.ordinal()].incrementAndGet();
+        final var worker = currentWorker.get();
+        if (worker != null && worker.thread == Thread.currentThread()) {
+            worker.deques[task.priority.ordinal()].offerFirst(task);
+        } else {
+            injectionQueues[task.priority.ordinal()].add(task);
+        }
+        final var idleWorker = idleWorkers.poll();
+        if (idleWorker != null) {
+            idleWorker.idle = false;
+            LockSupport.unpark(idleWorker.thread);
+        }
+    }
+    
+    private void checkRethrow() {
+        final var e = toRethrow;
+        if (e != null) {
+            toRethrow = null;
+            throw e;
+        }
+    }
+    
+    private Task createTask(Priority priority, Runnable runnable, @Nullable Event doneEvent, Event[] waitEvents) {
+        final var task = new Task(runnable, priority, doneEvent);
+        if (waitEvents.length == 0) {
+            push(task);
+            return task;
+        }
+        final var remaining = new AtomicInteger(waitEvents.length);
+        for (final var event : waitEvents) {
+            if (event == null) {
+                if (remaining.decrementAndGet() == 0) {
+                    push(task);
+                }
+                continue;
+            }
+            event.registerCallback(() -> {
+                if (remaining.decrementAndGet() == 0) {
+                    push(task);
+                }
+            });
+        }
+        return task;
+    }
+    
+    @Override
+    public Event enqueue(Runnable runnable, Event... events) {
+        return enqueue(Priority.NORMAL, runnable, events);
+    }
+    
+    /**
+     * @param events work will not be started until all of these have been triggered
+     * @return event triggered once the work has run
+     */
+    public Event enqueue(Priority priority, Runnable runnable, Event... events) {
+        checkRethrow();
+        final var doneEvent = new Event();
+        createTask(priority, runnable, doneEvent, events);
+        return doneEvent;
+    }
+    
+    @Override
+    public void enqueueUntracked(Runnable runnable) {
+        enqueueUntracked(Priority.NORMAL, runnable);
+    }
+    
+    public void enqueueUntracked(Priority priority, Runnable runnable) {
+        checkRethrow();
+        push(new Task(runnable, priority, null));
+    }
+    
+    /**
+     * @return event triggered once the work has run, null if the queue is saturated and the work was not enqueued
+     */
+    @Nullable
+    public Event tryEnqueue(Priority priority, Runnable runnable) {
+        if (saturated()) {
+            refused.increment();
+            return null;
+        }
+        return enqueue(priority, runnable);
+    }
+    
+    public boolean saturated() {
+        return depth.get() >= capacity;
+    }
+    
+    // ------------------------------------ CompletableFuture interop ------------------------------------
+    
+    public <T> CompletableFuture<T> submit(Supplier<T> supplier) {
+        return submit(Priority.NORMAL, supplier);
+    }
+    
+    public <T> CompletableFuture<T> submit(Priority priority, Supplier<T> supplier) {
+        checkRethrow();
+        final var future = new CompletableFuture<T>();
+        push(new Task(() -> {
+            try {
+                future.complete(supplier.get());
+            } catch (Throwable e) {
+                // the future carries the exception, doesn't need to be rethrown elsewhere
+                future.completeExceptionally(e);
+            }
+        }, priority, null));
+        return future;
+    }
+    
+    /**
+     * For use with CompletableFuture's *Async methods
+     */
+    public Executor executor(Priority priority) {
+        return runnable -> enqueueUntracked(priority, runnable);
+    }
+    
+    /**
+     * @return event triggered when the stage completes, normally or exceptionally
+     */
+    public static Event toEvent(CompletionStage<?> stage) {
+        final var event = new Event();
+        stage.whenComplete((value, throwable) -> event.trigger());
+        return event;
+    }
+    
+    public static CompletableFuture<Void> toFuture(Event event) {
+        final var future = new CompletableFuture<Void>();
+        event.registerCallback(() -> future.complete(null));
+        return future;
+    }
+    
+    // ------------------------------------ stats ------------------------------------
+    
+    /**
+     * @param depth        currently queued, not including running
+     * @param priorityDepth currently queued, per priority
+     * @param latencyNanos total time between work being queued and starting to run
+     * @param runNanos     total time spent running work
+     */
+    public record Stats(int threads, int capacity, int depth, int[] priorityDepth, long submitted, long completed, long refused, long latencyNanos, long maxLatencyNanos, long runNanos) {
+        public double averageLatencyNanos() {
+            return completed == 0 ? 0 : (double) latencyNanos / completed;
+        }
+    }
+    
+    public int threads() {
+        return workers.length;
+    }
+    
+    public Stats stats() {
+        final var perPriority = new int[PRIORITIES.length];
+        for (int i = 0; i < perPriority.length; i++) {
+            perPriority[i] = priorityDepth[i].get();
+        }
+        return new Stats(workers.length, capacity, depth.get(), perPriority, submitted.sum(), completed.sum(), refused.sum(), latencyNanos.sum(), maxLatencyNanos.get(), runNanos.sum());
+    }
+    
+    public void resetMaxLatency() {
+        maxLatencyNanos.set(0);
+    }
+    
+    public void finish() {
+        stop = true;
+        for (final var worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+    }
+}
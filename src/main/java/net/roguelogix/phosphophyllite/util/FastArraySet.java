@@ -4,36 +4,63 @@ import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import org.jetbrains.annotations.Contract;
 
+import javax.annotation.Nullable;
 import java.util.Collections;
 import java.util.List;
 
 @NonnullDefault
 
 public class FastArraySet<T> {
-    private final Object2IntOpenHashMap<T> indexMap = new Object2IntOpenHashMap<>();
+    // null for intrusive sets, which keep indices in the elements instead
+    @Nullable
+    private final Object2IntOpenHashMap<T> indexMap;
     private final ObjectArrayList<T> elementList = new ObjectArrayList<>();
     private final List<T> unmodifiableList = Collections.unmodifiableList(elementList);
     
     private int version = 0;
     
+    public FastArraySet() {
+        this(true);
+    }
+    
+    FastArraySet(boolean hashIndexed) {
+        indexMap = hashIndexed ? new Object2IntOpenHashMap<>() : null;
+    }
+    
+    int lookupIndex(T element) {
+        assert indexMap != null;
+        return indexMap.getOrDefault(element, -1);
+    }
+    
+    void storeIndex(T element, int index) {
+        assert indexMap != null;
+        indexMap.put(element, index);
+    }
+    
+    void clearIndex(T element) {
+        assert indexMap != null;
+        indexMap.removeInt(element);
+    }
+    
     @Contract
     public int add(T element) {
-        int index = indexMap.getOrDefault(element, -1);
+        int index = lookupIndex(element);
         if (index != -1) {
             return index;
         }
         // because this always adds to the end of the list, this doesnt invalidate previous indices
         index = elementList.size();
-        indexMap.put(element, index);
+        storeIndex(element, index);
         elementList.add(element);
         return index;
     }
     
     public boolean remove(T element) {
-        if (!indexMap.containsKey(element)) {
+        int index = lookupIndex(element);
+        if (index == -1) {
             return false;
         }
-        int index = indexMap.removeInt(element);
+        clearIndex(element);
         final var popped = elementList.pop();
         if (index == elementList.size()) {
             return false;
@@ -43,12 +70,12 @@ public class FastArraySet<T> {
         // the element we popped off wasn't the one that is getting removed
         assert elementList.get(index) == element;
         elementList.set(index, popped);
-        indexMap.put(popped, index);
+        storeIndex(popped, index);
         return true;
     }
     
     public boolean contains(T element) {
-        return indexMap.containsKey(element);
+        return lookupIndex(element) != -1;
     }
     
     public List<T> elements() {
@@ -68,6 +95,6 @@ public class FastArraySet<T> {
     }
     
     public int indexOf(T element) {
-        return indexMap.getInt(element);
+        return lookupIndex(element);
     }
 }
@@ -0,0 +1,205 @@
+package net.roguelogix.phosphophyllite.util;
+
+import it.unimi.dsi.fastutil.booleans.BooleanArrayList;
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+/**
+ * A set of heat bodies and the conductances between them, solved together once per tick
+ * <p>
+ * solve() is equivalent to calling HeatBody.transferWith for every link, in the order the links were added
+ * The arithmetic is rearranged to use the cached coefficients, so rounding differs, temperatures match those sequential calls to within a relative error of 1e-12 per tick
+ * transferred() is a difference of temperatures, so its error is only bounded by rfPerKelvin times that temperature error, not relative to the amount transferred
+ * The exponential coefficients are cached, and only recomputed when a conductance is changed or a body's rfPerKelvin or isInfinite has changed since the last solve
+ */
+@SuppressWarnings("unused")
+public class HeatNetwork {
+    
+    private static final byte FINITE = 0;
+    // the infinite end is pinned, only the other one moves
+    private static final byte A_INFINITE = 1;
+    private static final byte B_INFINITE = 2;
+    private static final byte BOTH_INFINITE = 3;
+    
+    private final ObjectArrayList<HeatBody> bodies = ObjectArrayList.wrap(new HeatBody[0]);
+    private final DoubleArrayList cachedRfPerKelvin = new DoubleArrayList();
+    private final BooleanArrayList cachedInfinite = new BooleanArrayList();
+    private final DoubleArrayList temperatures = new DoubleArrayList();
+    
+    private final IntArrayList linkA = new IntArrayList();
+    private final IntArrayList linkB = new IntArrayList();
+    private final DoubleArrayList conductances = new DoubleArrayList();
+    private final ByteArrayList modes = new ByteArrayList();
+    // exp(-rfkt * (1/ca + 1/cb)), or exp(-rfkt / c) of the finite end
+    private final DoubleArrayList decays = new DoubleArrayList();
+    // ca / (ca + cb), how far from b towards a the two settle
+    private final DoubleArrayList weights = new DoubleArrayList();
+    private final DoubleArrayList transferred = new DoubleArrayList();
+    
+    private boolean coefficientsDirty = true;
+    
+    /**
+     * @return index of the body, for use with link
+     */
+    public int addBody(HeatBody body) {
+        bodies.add(body);
+        cachedRfPerKelvin.add(body.rfPerKelvin());
+        cachedInfinite.add(body.isInfinite());
+        temperatures.add(0);
+        coefficientsDirty = true;
+        return bodies.size() - 1;
+    }
+    
+    /**
+     * @param rfkt RF per kelvin tick, same as HeatBody.transferWith
+     * @return index of the link, for use with setConductance and transferred
+     */
+    public int link(int a, int b, double rfkt) {
+        if (a < 0 || a >= bodies.size() || b < 0 || b >= bodies.size()) {
+            throw new IndexOutOfBoundsException("Unknown heat body");
+        }
+        linkA.add(a);
+        linkB.add(b);
+        conductances.add(rfkt);
+        modes.add(FINITE);
+        decays.add(0);
+        weights.add(0);
+        transferred.add(0);
+        coefficientsDirty = true;
+        return linkA.size() - 1;
+    }
+    
+    public void setConductance(int link, double rfkt) {
+        if (conductances.getDouble(link) != rfkt) {
+            conductances.set(link, rfkt);
+            coefficientsDirty = true;
+        }
+    }
+    
+    public double conductance(int link) {
+        return conductances.getDouble(link);
+    }
+    
+    /**
+     * @return RF transferred from a to b over this link in the last solve
+     */
+    public double transferred(int link) {
+        return transferred.getDouble(link);
+    }
+    
+    public int bodyCount() {
+        return bodies.size();
+    }
+    
+    public int linkCount() {
+        return linkA.size();
+    }
+    
+    public void clear() {
+        bodies.clear();
+        cachedRfPerKelvin.clear();
+        cachedInfinite.clear();
+        temperatures.clear();
+        linkA.clear();
+        linkB.clear();
+        conductances.clear();
+        modes.clear();
+        decays.clear();
+        weights.clear();
+        transferred.clear();
+        coefficientsDirty = true;
+    }
+    
+    /**
+     * Forces the coefficients to be recomputed on the next solve
+     */
+    public void invalidate() {
+        coefficientsDirty = true;
+    }
+    
+    public void solve() {
+        final int bodyCount = bodies.size();
+        final HeatBody[] bodyElements = bodies.elements();
+        final double[] rfPerKelvin = cachedRfPerKelvin.elements();
+        final boolean[] infinite = cachedInfinite.elements();
+        final double[] temperatures = this.temperatures.elements();
+        for (int i = 0; i < bodyCount; i++) {
+            final var body = bodyElements[i];
+            temperatures[i] = body.temperature();
+            if (rfPerKelvin[i] != body.rfPerKelvin() || infinite[i] != body.isInfinite()) {
+                rfPerKelvin[i] = body.rfPerKelvin();
+                infinite[i] = body.isInfinite();
+                coefficientsDirty = true;
+            }
+        }
+        
+        final int linkCount = linkA.size();
+        final int[] linkA = this.linkA.elements();
+        final int[] linkB = this.linkB.elements();
+        final byte[] modes = this.modes.elements();
+        final double[] decays = this.decays.elements();
+        final double[] weights = this.weights.elements();
+        final double[] transferred = this.transferred.elements();
+        
+        if (coefficientsDirty) {
+            final double[] conductances = this.conductances.elements();
+            for (int i = 0; i < linkCount; i++) {
+                final int a = linkA[i];
+                final int b = linkB[i];
+                final double rfkt = conductances[i];
+                if (infinite[a] && infinite[b]) {
+                    modes[i] = BOTH_INFINITE;
+                } else if (infinite[a]) {
+                    modes[i] = A_INFINITE;
+                    decays[i] = Math.exp(-rfkt / rfPerKelvin[b]);
+                } else if (infinite[b]) {
+                    modes[i] = B_INFINITE;
+                    decays[i] = Math.exp(-rfkt / rfPerKelvin[a]);
+                } else {
+                    modes[i] = FINITE;
+                    final double ca = rfPerKelvin[a];
+                    final double cb = rfPerKelvin[b];
+                    decays[i] = Math.exp(-(rfkt * (ca + cb) / (ca * cb)));
+                    weights[i] = ca / (ca + cb);
+                }
+            }
+            coefficientsDirty = false;
+        }
+        
+        for (int i = 0; i < linkCount; i++) {
+            final int a = linkA[i];
+            final int b = linkB[i];
+            final double ta = temperatures[a];
+            final double tb = temperatures[b];
+            final double decay = decays[i];
+            switch (modes[i]) {
+                case FINITE -> {
+                    final double target = tb + weights[i] * (ta - tb);
+                    final double newB = (tb - target) * decay + target;
+                    temperatures[a] = (ta - target) * decay + target;
+                    temperatures[b] = newB;
+                    transferred[i] = (newB - tb) * rfPerKelvin[b];
+                }
+                case A_INFINITE -> {
+                    final double newB = (tb - ta) * decay + ta;
+                    temperatures[b] = newB;
+                    transferred[i] = (newB - tb) * rfPerKelvin[b];
+                }
+                case B_INFINITE -> {
+                    final double newA = (ta - tb) * decay + tb;
+                    temperatures[a] = newA;
+                    transferred[i] = -(newA - ta) * rfPerKelvin[a];
+                }
+                default -> transferred[i] = 0;
+            }
+        }
+        
+        for (int i = 0; i < bodyCount; i++) {
+            if (!infinite[i]) {
+                bodyElements[i].setTemperature(temperatures[i]);
+            }
+        }
+    }
+}
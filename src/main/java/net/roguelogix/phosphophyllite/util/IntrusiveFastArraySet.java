@@ -0,0 +1,112 @@
+package net.roguelogix.phosphophyllite.util;
+
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * FastArraySet where elements keep their own index in each set they are in, so membership and removal don't hash anything
+ * <p>
+ * Elements that don't implement Element still work, they fall back to an identity keyed map
+ * Unlike FastArraySet, elements are compared by identity, not equals
+ */
+@NonnullDefault
+public class IntrusiveFastArraySet<T> extends FastArraySet<T> {
+    
+    public interface Element {
+        /**
+         * @return the same Indices instance every call
+         */
+        Indices fastArraySetIndices();
+    }
+    
+    /**
+     * An element's index in each set it is in, elements are rarely in more than a few sets, so this is a linear scan
+     */
+    public static final class Indices {
+        private static final Object[] NO_SETS = new Object[0];
+        private static final int[] NO_INDICES = new int[0];
+        
+        private Object[] sets = NO_SETS;
+        private int[] indices = NO_INDICES;
+        private int count = 0;
+        
+        int get(Object set) {
+            for (int i = 0; i < count; i++) {
+                if (sets[i] == set) {
+                    return indices[i];
+                }
+            }
+            return -1;
+        }
+        
+        void put(Object set, int index) {
+            for (int i = 0; i < count; i++) {
+                if (sets[i] == set) {
+                    indices[i] = index;
+                    return;
+                }
+            }
+            if (count == sets.length) {
+                final int newLength = Math.max(2, count * 2);
+                sets = Arrays.copyOf(sets, newLength);
+                indices = Arrays.copyOf(indices, newLength);
+            }
+            sets[count] = set;
+            indices[count] = index;
+            count++;
+        }
+        
+        void remove(Object set) {
+            for (int i = 0; i < count; i++) {
+                if (sets[i] == set) {
+                    count--;
+                    sets[i] = sets[count];
+                    indices[i] = indices[count];
+                    sets[count] = null;
+                    return;
+                }
+            }
+        }
+    }
+    
+    // only for elements that don't implement Element
+    @Nullable
+    private Reference2IntOpenHashMap<T> fallbackIndices;
+    
+    public IntrusiveFastArraySet() {
+        super(false);
+    }
+    
+    @Override
+    int lookupIndex(T element) {
+        if (element instanceof Element intrusive) {
+            return intrusive.fastArraySetIndices().get(this);
+        }
+        return fallbackIndices == null ? -1 : fallbackIndices.getOrDefault(element, -1);
+    }
+    
+    @Override
+    void storeIndex(T element, int index) {
+        if (element instanceof Element intrusive) {
+            intrusive.fastArraySetIndices().put(this, index);
+            return;
+        }
+        if (fallbackIndices == null) {
+            fallbackIndices = new Reference2IntOpenHashMap<>();
+        }
+        fallbackIndices.put(element, index);
+    }
+    
+    @Override
+    void clearIndex(T element) {
+        if (element instanceof Element intrusive) {
+            intrusive.fastArraySetIndices().remove(this);
+            return;
+        }
+        if (fallbackIndices != null) {
+            fallbackIndices.removeInt(element);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package net.roguelogix.phosphophyllite.util;
 
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import it.unimi.dsi.fastutil.longs.Long2IntLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
@@ -10,11 +11,21 @@ import net.roguelogix.phosphophyllite.modular.api.IModularTile;
 import net.roguelogix.phosphophyllite.modular.api.TileModule;
 import net.roguelogix.phosphophyllite.repack.org.joml.Vector3i;
 import net.roguelogix.phosphophyllite.repack.org.joml.Vector3ic;
+import net.roguelogix.phosphophyllite.threading.ParallelRange;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Arrays;
+import java.util.Spliterator;
 import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
 import java.util.function.Consumer;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 @ParametersAreNonnullByDefault
 @MethodsReturnNonnullByDefault
@@ -25,11 +36,170 @@ public class ModuleMap<ModuleType extends TileModule<TileType>, TileType extends
     private final ObjectArrayList<TileType> tiles = ObjectArrayList.wrap((TileType[]) new BlockEntity[0]);
     private final LongArrayList poses = new LongArrayList();
     private final Long2IntLinkedOpenHashMap indexMap = new Long2IntLinkedOpenHashMap();
+    private final ObjectArrayList<Column<TileType>> columns = new ObjectArrayList<>();
     
     {
         indexMap.defaultReturnValue(-1);
     }
     
+    /**
+     * Columnar per part state, one primitive value per part, at the part's dense index in this map
+     * <p>
+     * Columns are kept in step with the map, the loader initializes a part's value when it is added, and the storer (if any) is given the value back when it is removed
+     * Replacing the part at a position, or clearing the map, removes the old parts first, so their values are stored back too
+     * Indices are only stable while no parts are removed, and elements() must be re-fetched after parts are added
+     */
+    public abstract static class Column<TileType> {
+        abstract void added(TileType tile);
+        
+        abstract void removed(int index, TileType tile);
+    }
+    
+    public static final class DoubleColumn<TileType> extends Column<TileType> {
+        private final DoubleArrayList values = new DoubleArrayList();
+        private final ModuleMap<?, ?> map;
+        private final ToDoubleFunction<TileType> loader;
+        @Nullable
+        private final ObjDoubleConsumer<TileType> storer;
+        
+        private DoubleColumn(ModuleMap<?, ?> map, ToDoubleFunction<TileType> loader, @Nullable ObjDoubleConsumer<TileType> storer) {
+            this.map = map;
+            this.loader = loader;
+            this.storer = storer;
+        }
+        
+        public double[] elements() {
+            return values.elements();
+        }
+        
+        public double get(int index) {
+            return values.getDouble(index);
+        }
+        
+        public void set(int index, double value) {
+            values.set(index, value);
+        }
+        
+        /**
+         * Accessor for tiles, by position
+         */
+        public double get(BlockPos pos) {
+            return values.getDouble(map.indexOf(pos));
+        }
+        
+        public void set(BlockPos pos, double value) {
+            values.set(map.indexOf(pos), value);
+        }
+        
+        @Override
+        void added(TileType tile) {
+            values.add(loader.applyAsDouble(tile));
+        }
+        
+        @Override
+        void removed(int index, TileType tile) {
+            if (storer != null) {
+                storer.accept(tile, values.getDouble(index));
+            }
+            final double last = values.removeDouble(values.size() - 1);
+            if (index != values.size()) {
+                values.set(index, last);
+            }
+        }
+    }
+    
+    public static final class LongColumn<TileType> extends Column<TileType> {
+        private final LongArrayList values = new LongArrayList();
+        private final ModuleMap<?, ?> map;
+        private final ToLongFunction<TileType> loader;
+        @Nullable
+        private final ObjLongConsumer<TileType> storer;
+        
+        private LongColumn(ModuleMap<?, ?> map, ToLongFunction<TileType> loader, @Nullable ObjLongConsumer<TileType> storer) {
+            this.map = map;
+            this.loader = loader;
+            this.storer = storer;
+        }
+        
+        public long[] elements() {
+            return values.elements();
+        }
+        
+        public long get(int index) {
+            return values.getLong(index);
+        }
+        
+        public void set(int index, long value) {
+            values.set(index, value);
+        }
+        
+        /**
+         * Accessor for tiles, by position
+         */
+        public long get(BlockPos pos) {
+            return values.getLong(map.indexOf(pos));
+        }
+        
+        public void set(BlockPos pos, long value) {
+            values.set(map.indexOf(pos), value);
+        }
+        
+        @Override
+        void added(TileType tile) {
+            values.add(loader.applyAsLong(tile));
+        }
+        
+        @Override
+        void removed(int index, TileType tile) {
+            if (storer != null) {
+                storer.accept(tile, values.getLong(index));
+            }
+            final long last = values.removeLong(values.size() - 1);
+            if (index != values.size()) {
+                values.set(index, last);
+            }
+        }
+    }
+    
+    public DoubleColumn<TileType> addDoubleColumn(ToDoubleFunction<TileType> loader, @Nullable ObjDoubleConsumer<TileType> storer) {
+        return addColumn(new DoubleColumn<>(this, loader, storer));
+    }
+    
+    public LongColumn<TileType> addLongColumn(ToLongFunction<TileType> loader, @Nullable ObjLongConsumer<TileType> storer) {
+        return addColumn(new LongColumn<>(this, loader, storer));
+    }
+    
+    private <T extends Column<TileType>> T addColumn(T column) {
+        for (int i = 0; i < tiles.size(); i++) {
+            column.added(tiles.get(i));
+        }
+        columns.add(column);
+        return column;
+    }
+    
+    /**
+     * Stores every value back through the column's storer, and stops tracking it
+     */
+    public void removeColumn(Column<TileType> column) {
+        if (!columns.remove(column)) {
+            return;
+        }
+        for (int i = tiles.size() - 1; i >= 0; i--) {
+            column.removed(i, tiles.get(i));
+        }
+    }
+    
+    /**
+     * @return the dense index of the part at this position, -1 if there isn't one
+     */
+    public int indexOf(long pos) {
+        return indexMap.get(pos);
+    }
+    
+    public int indexOf(BlockPos pos) {
+        return indexMap.get(pos.asLong());
+    }
+    
     public ModuleMap(ModuleType[] moduleArray) {
         modules = ObjectArrayList.wrap(moduleArray);
     }
@@ -37,18 +207,23 @@ public class ModuleMap<ModuleType extends TileModule<TileType>, TileType extends
     public boolean addModule(final ModuleType module) {
         final TileType tile = module.iface;
         final long posLong = tile.getBlockPos().asLong();
-        final int previousIndex = indexMap.put(posLong, modules.size());
+        final int previousIndex = indexMap.get(posLong);
         // dont duplicate positions, just overwrite it
         if (previousIndex != -1) {
-            indexMap.put(posLong, previousIndex);
-            final var oldModule = modules.set(previousIndex, module);
-            tiles.set(previousIndex, tile);
-            poses.set(previousIndex, posLong);
-            return oldModule != module;
+            final var oldModule = modules.get(previousIndex);
+            if (oldModule == module) {
+                return false;
+            }
+            // removed then added, so column values are stored back to the old part before being loaded from the new one
+            removeModule(oldModule);
         }
+        indexMap.put(posLong, modules.size());
         modules.add(module);
         tiles.add(tile);
         poses.add(tile.getBlockPos().asLong());
+        for (int i = 0; i < columns.size(); i++) {
+            columns.get(i).added(tile);
+        }
         return true;
     }
     
@@ -63,6 +238,9 @@ public class ModuleMap<ModuleType extends TileModule<TileType>, TileType extends
         if (index == -1) {
             return false;
         }
+        for (int i = 0; i < columns.size(); i++) {
+            columns.get(i).removed(index, tiles.get(index));
+        }
         final var previousEndModule = modules.remove(modules.size() - 1);
         final var previousEndTile = tiles.remove(tiles.size() - 1);
         final var previousEndPos = poses.removeLong(poses.size() - 1);
@@ -175,6 +353,67 @@ public class ModuleMap<ModuleType extends TileModule<TileType>, TileType extends
         }
     }
     
+    /**
+     * Same as forEachTileAndModuleAndPosLong, over the dense indices [from, to)
+     */
+    public void forEachTileAndModuleAndPosLong(int from, int to, TileModulePosLong<ModuleType, TileType> consumer) {
+        if (from < 0 || to > modules.size() || from > to) {
+            throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") out of bounds for size " + modules.size());
+        }
+        final TileType[] tileElements = tiles.elements();
+        final ModuleType[] moduleElements = modules.elements();
+        final var posElements = poses.elements();
+        for (int i = from; i < to; i++) {
+            consumer.accept(tileElements[i], moduleElements[i], posElements[i]);
+        }
+    }
+    
+    /*
+     * Everything below reads the dense arrays from other threads, the map must not be modified until they return (or the stream is consumed)
+     * The consumer is called concurrently, so it must only touch state belonging to the part it is given
+     */
+    
+    /**
+     * @param minChunkSize fewest parts handed to one thread, maps no bigger than this are iterated on the calling thread
+     */
+    public void parallelForEach(int minChunkSize, TileModulePosLong<ModuleType, TileType> consumer) {
+        ParallelRange.forEach(modules.size(), minChunkSize, (from, to) -> forEachTileAndModuleAndPosLong(from, to, consumer));
+    }
+    
+    /**
+     * The function is given ranges of dense indices, to be read from tileElements, moduleElements, posElements, or columns
+     */
+    public <R> R parallelReduce(int minChunkSize, ParallelRange.RangeFunction<R> function, BinaryOperator<R> combiner, R identity) {
+        return ParallelRange.reduce(modules.size(), minChunkSize, function, combiner, identity);
+    }
+    
+    public Spliterator<ModuleType> moduleSpliterator() {
+        return Arrays.spliterator(modules.elements(), 0, modules.size());
+    }
+    
+    public Spliterator<TileType> tileSpliterator() {
+        return Arrays.spliterator(tiles.elements(), 0, tiles.size());
+    }
+    
+    public Spliterator.OfLong posSpliterator() {
+        return Arrays.spliterator(poses.elements(), 0, poses.size());
+    }
+    
+    public Stream<ModuleType> moduleStream(boolean parallel) {
+        final var stream = Arrays.stream(modules.elements(), 0, modules.size());
+        return parallel ? stream.parallel() : stream;
+    }
+    
+    public Stream<TileType> tileStream(boolean parallel) {
+        final var stream = Arrays.stream(tiles.elements(), 0, tiles.size());
+        return parallel ? stream.parallel() : stream;
+    }
+    
+    public LongStream posStream(boolean parallel) {
+        final var stream = Arrays.stream(poses.elements(), 0, poses.size());
+        return parallel ? stream.parallel() : stream;
+    }
+    
     public void forEachPos(Consumer<BlockPos> consumer) {
         forEachModule((module) -> consumer.accept(module.iface.getBlockPos()));
     }
@@ -205,6 +444,12 @@ public class ModuleMap<ModuleType extends TileModule<TileType>, TileType extends
     }
     
     public void clear() {
+        for (int i = 0; i < columns.size(); i++) {
+            final var column = columns.get(i);
+            for (int j = tiles.size() - 1; j >= 0; j--) {
+                column.removed(j, tiles.get(j));
+            }
+        }
         modules.clear();
         poses.clear();
         tiles.clear();